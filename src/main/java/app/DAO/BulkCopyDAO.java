@@ -0,0 +1,190 @@
+package app.DAO;
+
+import app.entities.Candidate;
+import app.entities.Skill;
+import app.exceptions.ApiException;
+import app.exceptions.DatabaseException;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table level export/import with PostgreSQL COPY, streamed straight between the database and
+ * a stream - no entities are loaded. Imports go through a temporary staging table and are then
+ * upserted on the primary key, so a file can be loaded again without duplicates.
+ * <p>
+ * Candidate ids come from a pooled sequence: a running instance draws ids from a block of
+ * {@value #CANDIDATE_ID_BLOCK} it reserved earlier, which moving the sequence does not take back.
+ * Imports must therefore run while the application is not creating candidates. As a guard, an import
+ * with new candidate ids inside the block the sequence handed out last is rejected with 409; blocks
+ * still held by other instances are not seen.
+ */
+public class BulkCopyDAO {
+
+    // allocationSize of candidate_seq on Candidate
+    private static final int CANDIDATE_ID_BLOCK = 50;
+
+    public enum Format { CSV, BINARY }
+
+    public enum Table {
+        SKILL("skill", "skill_id, name, category, description, slug, version",
+                "ON CONFLICT (skill_id) DO UPDATE SET name = EXCLUDED.name, category = EXCLUDED.category, "
+                        + "description = EXCLUDED.description, slug = EXCLUDED.slug, version = EXCLUDED.version",
+                "SELECT setval(pg_get_serial_sequence('skill', 'skill_id'), (SELECT COALESCE(MAX(skill_id), 0) + 1 FROM skill), false)",
+                null),
+        CANDIDATE("candidate", "candidate_id, name, phone, educationbackground, version",
+                "ON CONFLICT (candidate_id) DO UPDATE SET name = EXCLUDED.name, phone = EXCLUDED.phone, "
+                        + "educationbackground = EXCLUDED.educationbackground, version = EXCLUDED.version",
+                // pooled sequence: the next block starts after the highest imported id
+                "SELECT setval('candidate_seq', (SELECT COALESCE(MAX(candidate_id), 0) + " + CANDIDATE_ID_BLOCK + " FROM candidate))",
+                // new ids in the block handed out last - a running instance may be assigning them right now
+                "SELECT s.candidate_id FROM copy_staging s, candidate_seq q "
+                        + "WHERE q.is_called AND s.candidate_id > q.last_value - " + CANDIDATE_ID_BLOCK
+                        + " AND s.candidate_id <= q.last_value "
+                        + "AND NOT EXISTS (SELECT 1 FROM candidate c WHERE c.candidate_id = s.candidate_id) "
+                        + "ORDER BY s.candidate_id LIMIT 10"),
+        CANDIDATE_SKILL("candidate_skill", "candidate_id, skill_id",
+                "ON CONFLICT DO NOTHING",
+                null,
+                null);
+
+        private final String tableName;
+        private final String columns;
+        private final String onConflict;
+        private final String fixSequence;
+        private final String reservedIds;
+
+        Table(String tableName, String columns, String onConflict, String fixSequence, String reservedIds) {
+            this.tableName = tableName;
+            this.columns = columns;
+            this.onConflict = onConflict;
+            this.fixSequence = fixSequence;
+            this.reservedIds = reservedIds;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+    }
+
+    private final EntityManagerFactory emf;
+
+    public BulkCopyDAO(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    /** @return number of rows written to the stream */
+    public long exportTable(Table table, Format format, OutputStream out) {
+        String sql = "COPY " + table.tableName + " (" + table.columns + ") TO STDOUT WITH (" + options(format) + ")";
+        return inTransaction(connection -> copyManager(connection).copyOut(sql, out), "export " + table.tableName);
+    }
+
+    /** @return number of rows inserted or updated */
+    public long importTable(Table table, Format format, InputStream in) {
+        long rows = copyIntoTable(table, format, in);
+        evictCachedData(table);
+        return rows;
+    }
+
+    // COPY bypasses Hibernate, so the second-level and query cache entries of the table are dropped by hand
+    private void evictCachedData(Table table) {
+        Cache cache = emf.unwrap(SessionFactory.class).getCache();
+        switch (table) {
+            case SKILL -> cache.evictEntityData(Skill.class);
+            case CANDIDATE -> cache.evictEntityData(Candidate.class);
+            case CANDIDATE_SKILL -> cache.evictCollectionData(Candidate.class.getName() + ".skills");
+        }
+        cache.evictQueryRegions();
+    }
+
+    private long copyIntoTable(Table table, Format format, InputStream in) {
+        return inTransaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE copy_staging (LIKE " + table.tableName + " INCLUDING DEFAULTS) ON COMMIT DROP");
+            }
+            copyManager(connection).copyIn(
+                    "COPY copy_staging (" + table.columns + ") FROM STDIN WITH (" + options(format) + ")", in);
+
+            if (table.reservedIds != null) {
+                rejectReservedIds(connection, table);
+            }
+            long rows;
+            try (Statement statement = connection.createStatement()) {
+                rows = statement.executeUpdate("INSERT INTO " + table.tableName + " (" + table.columns + ") "
+                        + "SELECT " + table.columns + " FROM copy_staging " + table.onConflict);
+                if (table.fixSequence != null) {
+                    statement.execute(table.fixSequence);
+                }
+            }
+            return rows;
+        }, "import " + table.tableName);
+    }
+
+    private static void rejectReservedIds(Connection connection, Table table) throws SQLException {
+        List<Long> reserved = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(table.reservedIds)) {
+            while (rs.next()) reserved.add(rs.getLong(1));
+        }
+        if (!reserved.isEmpty()) {
+            throw new ApiException(409, "Import into " + table.tableName + " has new ids in the block the running application "
+                    + "assigns ids from (e.g. " + reserved + ") - import while no candidates are being created");
+        }
+    }
+
+    private static String options(Format format) {
+        return format == Format.CSV ? "FORMAT csv, HEADER true" : "FORMAT binary";
+    }
+
+    private static CopyManager copyManager(Connection connection) throws SQLException {
+        // the pooled connection is a proxy - COPY needs the pgjdbc connection behind it
+        return connection.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    @FunctionalInterface
+    private interface CopyWork {
+        long execute(Connection connection) throws SQLException, IOException;
+    }
+
+    private long inTransaction(CopyWork work, String description) {
+        EntityManager em = emf.createEntityManager();
+        Session session = em.unwrap(Session.class);
+        Transaction tx = session.beginTransaction();
+        try {
+            long rows = session.doReturningWork(connection -> {
+                try {
+                    return work.execute(connection);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            tx.commit();
+            return rows;
+        } catch (PersistenceException e) {
+            DAOUtils.safeRollback(tx);
+            throw new DatabaseException("Failed to " + description + DAOUtils.sqlState(e, description));
+        } catch (RuntimeException e) {
+            DAOUtils.safeRollback(tx);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+}
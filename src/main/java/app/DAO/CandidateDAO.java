@@ -1,55 +1,201 @@
 package app.DAO;
 
+import app.DTO.CandidateDTO;
+import app.DTO.SkillDTO;
+import app.config.UnitOfWork;
 import app.entities.Candidate;
 import app.entities.Skill;
+import app.enums.Category;
+import app.exceptions.ApiException;
 import app.exceptions.DatabaseException;
 import app.exceptions.EntityNotFoundException;
 import app.exceptions.ValidationException;
 import jakarta.persistence.*;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 public class CandidateDAO implements IDAO<Candidate, Integer> {
 
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final int BULK_BATCH_SIZE = 50;
+
+    // One row per candidate and skill (a single row with null skill columns for candidates without skills),
+    // with the skill's stored market data - null stats columns when the skill has no skill_stats row yet
+    private static final String CANDIDATE_ROWS =
+            "SELECT c.id, c.name, c.phone, c.educationBackground, c.version, s.id, s.name, s.category, s.description, s.slug, " +
+                    "st.popularityScore, st.averageSalary, st.refreshedAt " +
+                    "FROM Candidate c LEFT JOIN c.skills s LEFT JOIN SkillStats st ON st.skillId = s.id ";
+
     private final EntityManagerFactory emf;
 
     public CandidateDAO(EntityManagerFactory emf) {
         this.emf = emf;
     }
 
-    public List<Candidate> getCandidatesByCategory(String category) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            String jpql = "SELECT c FROM Candidate c JOIN c.skills s WHERE s.category = :category";
-            TypedQuery<Candidate> query = em.createQuery(jpql, Candidate.class);
-            query.setParameter("category", category.toUpperCase());
-            return query.getResultList();
-        } catch (Exception e) {
-            throw new DatabaseException("Error fetching candidates by category");
+    /**
+     * Candidates having a skill in any (or, with matchAll, every one) of the given categories.
+     * The subquery finds the matching ids through the category and candidate_skill indexes,
+     * the outer query then reads those candidates with all their skills in one round trip.
+     */
+    public List<CandidateDTO> getCandidatesByCategories(Set<Category> categories, boolean matchAll) {
+        if (categories == null || categories.isEmpty()) {
+            throw new ValidationException("At least one category is required");
         }
-        finally {
-            em.close();
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            String matching = "SELECT m.id FROM Candidate m JOIN m.skills ms WHERE ms.category IN :categories";
+            if (matchAll) {
+                matching += " GROUP BY m.id HAVING COUNT(DISTINCT ms.category) = :categoryCount";
+            }
+            TypedQuery<Object[]> query = em.createQuery(
+                    CANDIDATE_ROWS + "WHERE c.id IN (" + matching + ") ORDER BY c.id", Object[].class);
+            query.setParameter("categories", categories);
+            if (matchAll) {
+                query.setParameter("categoryCount", (long) categories.size());
+            }
+            return toCandidateDTOs(query.getResultList());
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Error fetching candidates by category");
         }
     }
 
     @Override
     public List<Candidate> getAll() {
-        EntityManager em = emf.createEntityManager();
-        try {
-            return em.createQuery("SELECT c FROM Candidate c", Candidate.class).getResultList();
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            // skills in the same query instead of one eager select per candidate
+            return em.createQuery("SELECT DISTINCT c FROM Candidate c LEFT JOIN FETCH c.skills", Candidate.class).getResultList();
         } catch (PersistenceException e) {
             throw new DatabaseException("Failed to fetch candidates");
+        }
+    }
+
+    // Keyset pagination: the LIMIT is applied to the id query, then only that page is read with its skills
+    public List<CandidateDTO> getPage(Integer afterId, int limit) {
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            List<Integer> ids = em.createQuery(
+                            "SELECT c.id FROM Candidate c WHERE c.id > :after ORDER BY c.id", Integer.class)
+                    .setParameter("after", afterId == null ? 0 : afterId)
+                    .setMaxResults(limit)
+                    .getResultList();
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            return toCandidateDTOs(em.createQuery(CANDIDATE_ROWS + "WHERE c.id IN :ids ORDER BY c.id", Object[].class)
+                    .setParameter("ids", ids)
+                    .getResultList());
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch candidate page");
+        }
+    }
+
+    // Read path of GET /candidate/{id} - a projection, no managed entity
+    public CandidateDTO getDTOById(Integer id) {
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            List<CandidateDTO> found = toCandidateDTOs(em.createQuery(CANDIDATE_ROWS + "WHERE c.id = :id", Object[].class)
+                    .setParameter("id", id)
+                    .getResultList());
+            if (found.isEmpty()) {
+                throw new EntityNotFoundException("Candidate with id=" + id + " not found");
+            }
+            return found.get(0);
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch candidate by id");
+        }
+    }
+
+    /**
+     * Streams every candidate to the consumer in id order. Rows are read from a forward-only
+     * cursor as plain columns, so nothing is kept in a persistence context and memory stays flat.
+     */
+    public void streamAll(Consumer<CandidateDTO> consumer) {
+        Session session = emf.unwrap(SessionFactory.class).openSession();
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        // pgjdbc only honours the fetch size (server side cursor) inside a transaction
+        Transaction tx = session.beginTransaction();
+        try (ScrollableResults<Object[]> rows = session.createSelectionQuery(CANDIDATE_ROWS + "ORDER BY c.id", Object[].class)
+                .setReadOnly(true)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            RowFolder folder = new RowFolder();
+            while (rows.next()) {
+                CandidateDTO completed = folder.add(rows.get());
+                if (completed != null) consumer.accept(completed);
+            }
+            if (folder.current != null) consumer.accept(folder.current);
+            tx.commit();
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to stream candidates");
         } finally {
-            em.close();
+            // also covers the consumer failing half way, e.g. when the client disconnects
+            DAOUtils.safeRollback(tx);
+            session.close();
+        }
+    }
+
+    private static List<CandidateDTO> toCandidateDTOs(List<Object[]> rows) {
+        List<CandidateDTO> candidates = new ArrayList<>();
+        RowFolder folder = new RowFolder();
+        for (Object[] row : rows) {
+            CandidateDTO completed = folder.add(row);
+            if (completed != null) candidates.add(completed);
+        }
+        if (folder.current != null) candidates.add(folder.current);
+        return candidates;
+    }
+
+    // Folds consecutive CANDIDATE_ROWS of the same candidate (ordered by candidate id) into one DTO
+    private static final class RowFolder {
+        private CandidateDTO current;
+
+        // @return the previous candidate once a row of the next one arrives
+        CandidateDTO add(Object[] row) {
+            CandidateDTO completed = null;
+            Integer candidateId = (Integer) row[0];
+            if (current == null || !current.getId().equals(candidateId)) {
+                completed = current;
+                current = new CandidateDTO(candidateId, (String) row[1], (String) row[2], (String) row[3], new HashSet<>(), (Long) row[4]);
+            }
+            if (row[5] != null) {
+                SkillDTO skill = new SkillDTO();
+                skill.setId((Integer) row[5]);
+                skill.setName((String) row[6]);
+                skill.setCategory((Category) row[7]);
+                skill.setDescription((String) row[8]);
+                skill.setSlug((String) row[9]);
+                skill.setPopularityScore((Integer) row[10]);
+                skill.setAverageSalary((Integer) row[11]);
+                skill.setStatsRefreshedAt((Instant) row[12]);
+                current.getSkills().add(skill);
+            }
+            return completed;
         }
     }
 
     @Override
     public Candidate getById(Integer id) {  // Changed Long to Integer
-        EntityManager em = emf.createEntityManager();
-        try {
-            Candidate c = em.find(Candidate.class, id);
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            Candidate c = scope.entityManager().find(Candidate.class, id);
             if (c == null) {
                 throw new EntityNotFoundException("Candidate with id=" + id + " not found");
             }
@@ -58,8 +204,6 @@ public class CandidateDAO implements IDAO<Candidate, Integer> {
             throw new ValidationException("Invalid id for candidate lookup");
         } catch (PersistenceException e) {
             throw new DatabaseException("Failed to fetch candidate by id");
-        } finally {
-            em.close();
         }
     }
 
@@ -72,78 +216,136 @@ public class CandidateDAO implements IDAO<Candidate, Integer> {
             throw new ValidationException("Candidate name is required");
         }
 
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
             // Brug merge i stedet for persist
-            candidate = em.merge(candidate);
-            tx.commit();
+            candidate = scope.entityManager().merge(candidate);
+            scope.commit();
             return candidate;
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to create or update candidate");
-        } finally {
-            em.close();
         }
     }
 
 
+    /**
+     * Inserts the candidates with their skill links in one transaction, all or nothing.
+     * Goes through a StatelessSession, so the candidate rows are sent as JDBC batches and no persistence
+     * context grows with the batch. The links follow in one INSERT over arrays of ids; Hibernate sends
+     * the pending candidate batch before it prepares that statement, so the rows they reference exist.
+     * The skills must exist - only their ids are used.
+     */
+    public List<Candidate> insertBatch(List<Candidate> candidates) {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        SessionFactory sessionFactory = emf.unwrap(SessionFactory.class);
+        StatelessSession session = sessionFactory.openStatelessSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.setJdbcBatchSize(BULK_BATCH_SIZE);
+            List<Integer> candidateIds = new ArrayList<>();
+            List<Integer> skillIds = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                session.insert(candidate);
+                if (candidate.getSkills() == null) continue;
+                for (Skill skill : candidate.getSkills()) {
+                    candidateIds.add(candidate.getId());
+                    skillIds.add(skill.getId());
+                }
+            }
+            // native SQL: Hibernate only knows which cache regions to invalidate from the query space.
+            // Without it every region and every cached query is dropped - once per chunk
+            if (!candidateIds.isEmpty()) {
+                session.createNativeQuery(
+                                "INSERT INTO candidate_skill (candidate_id, skill_id) " +
+                                        "SELECT * FROM unnest(CAST(:candidateIds AS integer[]), CAST(:skillIds AS integer[]))")
+                        .addSynchronizedQuerySpace("candidate_skill")
+                        .setParameter("candidateIds", candidateIds.toArray(Integer[]::new))
+                        .setParameter("skillIds", skillIds.toArray(Integer[]::new))
+                        .executeUpdate();
+            }
+            tx.commit();
+            return candidates;
+        } catch (PersistenceException e) {
+            DAOUtils.safeRollback(tx);
+            throw new DatabaseException("Failed to insert candidates" + DAOUtils.sqlState(e, "insert candidates"));
+        } finally {
+            session.close();
+        }
+    }
+
     @Override
     public Candidate update(Candidate candidate) {
         if (candidate == null || candidate.getId() == null)
             throw new ValidationException("Candidate id is required for update");
 
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            Candidate existing = em.find(Candidate.class, candidate.getId());
-            if (existing == null) {
-                throw new EntityNotFoundException("Candidate with id=" + candidate.getId() + " not found");
+        updateIfVersion(candidate, candidate.getVersion());
+        return getById(candidate.getId());
+    }
+
+    /**
+     * One conditional UPDATE, no SELECT first: only the non-null fields are written and the version is
+     * bumped. With an expected version the row must still have it, otherwise the update is unconditional.
+     * Only when no row matched, a count query tells a missing candidate (404) from a lost update (409).
+     */
+    public void updateIfVersion(Candidate candidate, Long expectedVersion) {
+        List<String> assignments = new ArrayList<>();
+        if (candidate.getName() != null) assignments.add("c.name = :name");
+        if (candidate.getPhone() != null) assignments.add("c.phone = :phone");
+        if (candidate.getEducationBackground() != null) assignments.add("c.educationBackground = :educationBackground");
+        assignments.add("c.version = c.version + 1");
+
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
+            Query update = em.createQuery("UPDATE Candidate c SET " + String.join(", ", assignments)
+                    + " WHERE c.id = :id" + (expectedVersion == null ? "" : " AND c.version = :version"));
+            update.setParameter("id", candidate.getId());
+            if (candidate.getName() != null) update.setParameter("name", candidate.getName());
+            if (candidate.getPhone() != null) update.setParameter("phone", candidate.getPhone());
+            if (candidate.getEducationBackground() != null) update.setParameter("educationBackground", candidate.getEducationBackground());
+            if (expectedVersion != null) update.setParameter("version", expectedVersion);
+
+            int rows = update.executeUpdate();
+            if (rows == 0) {
+                long existing = em.createQuery("SELECT COUNT(c) FROM Candidate c WHERE c.id = :id", Long.class)
+                        .setParameter("id", candidate.getId())
+                        .getSingleResult();
+                if (existing == 0) {
+                    throw new EntityNotFoundException("Candidate with id=" + candidate.getId() + " not found");
+                }
+                throw new ApiException(409, "Candidate with id=" + candidate.getId()
+                        + " was changed by someone else (expected version " + expectedVersion + ")");
             }
-            tx.begin();
-            Candidate merged = em.merge(candidate);
-            tx.commit();
-            return merged;
+            scope.commit();
         } catch (RollbackException e) {
-            safeRollback(tx);
             throw new DatabaseException("Could not update candidate (constraint violation?)");
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to update candidate");
-        } finally {
-            em.close();
         }
     }
 
     @Override
     public boolean delete(Integer id) {  // Changed Long to Integer
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
             Candidate c = em.find(Candidate.class, id);
             if (c == null) {
                 throw new EntityNotFoundException("Candidate with id=" + id + " not found");
             }
-            tx.begin();
             em.remove(c);
-            tx.commit();
+            scope.commit();
             return true;
         } catch (RollbackException e) {
-            safeRollback(tx);
             throw new DatabaseException("Could not delete candidate");
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to delete candidate");
-        } finally {
-            em.close();
         }
     }
 
     public void linkCandidateSkills(Integer candidateId, Set<Skill> skills) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
             Candidate candidate = em.find(Candidate.class, candidateId);
             if (candidate == null) {
                 throw new EntityNotFoundException("Candidate with id=" + candidateId + " not found");
@@ -151,22 +353,86 @@ public class CandidateDAO implements IDAO<Candidate, Integer> {
 
             candidate.setSkills(skills);
 
-            tx.begin();
             em.merge(candidate);
-            tx.commit();
+            scope.commit();
 
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to link skills to candidate");
-        } finally {
-            em.close();
         }
     }
 
 
-    private void safeRollback(EntityTransaction tx) {
-        if (tx != null && tx.isActive()) {
-            try { tx.rollback(); } catch (Exception ignored) {}
+    public record SkillLinkChange(int linked, int unlinked) {
+    }
+
+    /**
+     * Links and unlinks skills of one candidate in a single transaction, straight on candidate_skill:
+     * one INSERT ... ON CONFLICT DO NOTHING and one DELETE, whatever the number of ids. Linking an
+     * already linked skill or unlinking a missing link is not an error.
+     * @return the number of links actually added and removed
+     */
+    public SkillLinkChange updateSkillLinks(Integer candidateId, Collection<Integer> link, Collection<Integer> unlink) {
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            SkillLinkChange change = scope.entityManager().unwrap(Session.class).doReturningWork(connection -> {
+                // key share lock: the candidate cannot be deleted while its links are written
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "SELECT 1 FROM candidate WHERE candidate_id = ? FOR KEY SHARE")) {
+                    ps.setInt(1, candidateId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new EntityNotFoundException("Candidate with id=" + candidateId + " not found");
+                        }
+                    }
+                }
+                int linked = 0;
+                if (!link.isEmpty()) {
+                    Array skillIds = connection.createArrayOf("integer", link.toArray());
+                    Set<Integer> unknown = new TreeSet<>(link);
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            "SELECT skill_id FROM skill WHERE skill_id = ANY (?)")) {
+                        ps.setArray(1, skillIds);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) unknown.remove(rs.getInt(1));
+                        }
+                    }
+                    if (!unknown.isEmpty()) {
+                        throw new EntityNotFoundException("Skill(s) not found: " + unknown);
+                    }
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            "INSERT INTO candidate_skill (candidate_id, skill_id) SELECT ?, unnest(?) ON CONFLICT DO NOTHING")) {
+                        ps.setInt(1, candidateId);
+                        ps.setArray(2, skillIds);
+                        linked = ps.executeUpdate();
+                    }
+                }
+                int unlinked = 0;
+                if (!unlink.isEmpty()) {
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            "DELETE FROM candidate_skill WHERE candidate_id = ? AND skill_id = ANY (?)")) {
+                        ps.setInt(1, candidateId);
+                        ps.setArray(2, connection.createArrayOf("integer", unlink.toArray()));
+                        unlinked = ps.executeUpdate();
+                    }
+                }
+                if (linked > 0 || unlinked > 0) {
+                    // the skills are part of the candidate's representation, so its ETag changes too
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            "UPDATE candidate SET version = version + 1 WHERE candidate_id = ?")) {
+                        ps.setInt(1, candidateId);
+                        ps.executeUpdate();
+                    }
+                }
+                return new SkillLinkChange(linked, unlinked);
+            });
+            scope.commit();
+            if (change.linked() > 0 || change.unlinked() > 0) {
+                // written past Hibernate - the cached skill collection of the candidate is stale once this commits
+                UnitOfWork.afterCommit(() -> emf.unwrap(SessionFactory.class).getCache()
+                        .evictCollectionData(Candidate.class.getName() + ".skills", candidateId));
+            }
+            return change;
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to update skill links" + DAOUtils.sqlState(e, "update skill links"));
         }
     }
 }
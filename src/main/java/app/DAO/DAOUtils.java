@@ -0,0 +1,40 @@
+package app.DAO;
+
+import jakarta.persistence.EntityTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+// Error handling shared by the DAOs that work on their own transaction or on the JDBC connection
+final class DAOUtils {
+
+    private static final Logger logger = LoggerFactory.getLogger(DAOUtils.class);
+
+    private DAOUtils() {
+    }
+
+    /**
+     * Logs the root cause of a failed database call and returns " (SQLSTATE 23505)" for the client message.
+     * The database's own message can contain row values, so it stays in the log.
+     */
+    static String sqlState(Throwable e, String action) {
+        Throwable root = e;
+        String state = null;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            root = cause;
+            if (state == null && cause instanceof SQLException sqlException) {
+                state = sqlException.getSQLState();
+            }
+        }
+        logger.warn("Could not {}: {}", action, root.toString());
+        return state == null ? "" : " (SQLSTATE " + state + ")";
+    }
+
+    // also takes Hibernate's Transaction, which is an EntityTransaction
+    static void safeRollback(EntityTransaction tx) {
+        if (tx != null && tx.isActive()) {
+            try { tx.rollback(); } catch (Exception ignored) {}
+        }
+    }
+}
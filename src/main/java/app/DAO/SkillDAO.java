@@ -1,12 +1,19 @@
 package app.DAO;
 
+import app.config.UnitOfWork;
 import app.entities.Skill;
+import app.exceptions.ApiException;
 import app.exceptions.DatabaseException;
 import app.exceptions.EntityNotFoundException;
 import app.exceptions.ValidationException;
 import jakarta.persistence.*;
+import org.hibernate.jpa.HibernateHints;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SkillDAO implements IDAO<Skill, Integer> {  // Changed Long to Integer
 
@@ -18,21 +25,23 @@ public class SkillDAO implements IDAO<Skill, Integer> {  // Changed Long to Inte
 
     @Override
     public List<Skill> getAll() {
-        EntityManager em = emf.createEntityManager();
-        try {
-            return em.createQuery("SELECT s FROM Skill s", Skill.class).getResultList();
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            return em.createQuery("SELECT s FROM Skill s", Skill.class)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getResultList();
         } catch (PersistenceException e) {
             throw new DatabaseException("Failed to fetch skills");
-        } finally {
-            em.close();
         }
     }
 
     @Override
     public Skill getById(Integer id) {  // Changed Long to Integer
-        EntityManager em = emf.createEntityManager();
-        try {
-            Skill s = em.find(Skill.class, id);
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            // read-only: no dirty checking snapshot, callers only read or merge the detached skill
+            Skill s = em.find(Skill.class, id, Map.of(HibernateHints.HINT_READ_ONLY, true));
             if (s == null) {
                 throw new EntityNotFoundException("Skill with id=" + id + " not found");
             }
@@ -41,8 +50,53 @@ public class SkillDAO implements IDAO<Skill, Integer> {  // Changed Long to Inte
             throw new ValidationException("Invalid id for skill lookup");
         } catch (PersistenceException e) {
             throw new DatabaseException("Failed to fetch skill by id");
-        } finally {
-            em.close();
+        }
+    }
+
+    public Skill getBySlug(String slug) {
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            return em.createQuery("SELECT s FROM Skill s WHERE s.slug = :slug", Skill.class)
+                    .setParameter("slug", slug)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getSingleResult();
+        } catch (NoResultException e) {
+            throw new EntityNotFoundException("Skill with slug=" + slug + " not found");
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch skill by slug");
+        }
+    }
+
+    // Skills keyed by slug, in one query on the unique slug index - unknown slugs are absent
+    public Map<String, Skill> getBySlugs(Collection<String> slugs) {
+        if (slugs.isEmpty()) {
+            return Map.of();
+        }
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            List<Skill> skills = em.createQuery("SELECT s FROM Skill s WHERE s.slug IN :slugs", Skill.class)
+                    .setParameter("slugs", slugs)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getResultList();
+            Map<String, Skill> bySlug = new HashMap<>();
+            for (Skill skill : skills) {
+                bySlug.put(skill.getSlug(), skill);
+            }
+            return bySlug;
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch skills by slug");
+        }
+    }
+
+    public List<String> getAllSlugs() {
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            EntityManager em = scope.entityManager();
+            return em.createQuery("SELECT s.slug FROM Skill s ORDER BY s.slug", String.class)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .getResultList();
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch skill slugs");
         }
     }
 
@@ -55,24 +109,16 @@ public class SkillDAO implements IDAO<Skill, Integer> {  // Changed Long to Inte
             throw new ValidationException("Skill name is required");
         }
 
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
-            em.persist(skill);
-            tx.commit();
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            scope.entityManager().persist(skill);
+            scope.commit();
             return skill;
         } catch (EntityExistsException e) {
-            safeRollback(tx);
             throw new DatabaseException("Skill already exists");
         } catch (RollbackException e) {
-            safeRollback(tx);
             throw new DatabaseException("Could not create skill (constraint violation?)");
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to create skill");
-        } finally {
-            em.close();
         }
     }
 
@@ -81,55 +127,61 @@ public class SkillDAO implements IDAO<Skill, Integer> {  // Changed Long to Inte
         if (skill == null || skill.getId() == null)
             throw new ValidationException("Skill id is required for update");
 
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            Skill existing = em.find(Skill.class, skill.getId());
-            if (existing == null) {
-                throw new EntityNotFoundException("Skill with id=" + skill.getId() + " not found");
+        // Same conditional UPDATE as CandidateDAO.updateIfVersion - the slug follows the name
+        List<String> assignments = new ArrayList<>();
+        if (skill.getName() != null) assignments.add("s.name = :name, s.slug = :slug");
+        if (skill.getDescription() != null) assignments.add("s.description = :description");
+        if (skill.getCategory() != null) assignments.add("s.category = :category");
+        assignments.add("s.version = s.version + 1");
+
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
+            // a bulk update also evicts the Skill cache region
+            Query update = em.createQuery("UPDATE Skill s SET " + String.join(", ", assignments)
+                    + " WHERE s.id = :id" + (skill.getVersion() == null ? "" : " AND s.version = :version"));
+            update.setParameter("id", skill.getId());
+            if (skill.getName() != null) {
+                update.setParameter("name", skill.getName());
+                update.setParameter("slug", Skill.toSlug(skill.getName()));
             }
-            tx.begin();
-            Skill merged = em.merge(skill);
-            tx.commit();
-            return merged;
+            if (skill.getDescription() != null) update.setParameter("description", skill.getDescription());
+            if (skill.getCategory() != null) update.setParameter("category", skill.getCategory());
+            if (skill.getVersion() != null) update.setParameter("version", skill.getVersion());
+
+            if (update.executeUpdate() == 0) {
+                long existing = em.createQuery("SELECT COUNT(s) FROM Skill s WHERE s.id = :id", Long.class)
+                        .setParameter("id", skill.getId())
+                        .getSingleResult();
+                if (existing == 0) {
+                    throw new EntityNotFoundException("Skill with id=" + skill.getId() + " not found");
+                }
+                throw new ApiException(409, "Skill with id=" + skill.getId()
+                        + " was changed by someone else (expected version " + skill.getVersion() + ")");
+            }
+            scope.commit();
         } catch (RollbackException e) {
-            safeRollback(tx);
             throw new DatabaseException("Could not update skill (constraint violation?)");
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to update skill");
-        } finally {
-            em.close();
         }
+        return getById(skill.getId());
     }
 
     @Override
     public boolean delete(Integer id) {  // Changed Long to Integer
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
             Skill s = em.find(Skill.class, id);
             if (s == null) {
                 throw new EntityNotFoundException("Skill with id=" + id + " not found");
             }
-            tx.begin();
             em.remove(s);
-            tx.commit();
+            scope.commit();
             return true;
         } catch (RollbackException e) {
-            safeRollback(tx);
             throw new DatabaseException("Could not delete skill");
         } catch (PersistenceException e) {
-            safeRollback(tx);
             throw new DatabaseException("Failed to delete skill");
-        } finally {
-            em.close();
-        }
-    }
-
-    private void safeRollback(EntityTransaction tx) {
-        if (tx != null && tx.isActive()) {
-            try { tx.rollback(); } catch (Exception ignored) {}
         }
     }
 }
@@ -0,0 +1,58 @@
+package app.DAO;
+
+import app.config.UnitOfWork;
+import app.entities.Skill;
+import app.entities.SkillStats;
+import app.exceptions.DatabaseException;
+import jakarta.persistence.*;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SkillStatsDAO {
+
+    private final EntityManagerFactory emf;
+
+    public SkillStatsDAO(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    // Stats keyed by skill id - skills without a row are absent
+    public Map<Integer, SkillStats> getBySkillIds(Collection<Integer> skillIds) {
+        if (skillIds.isEmpty()) {
+            return Map.of();
+        }
+        try (UnitOfWork.Scope scope = UnitOfWork.read(emf)) {
+            List<SkillStats> rows = scope.entityManager().createQuery(
+                            "SELECT st FROM SkillStats st WHERE st.skillId IN :ids", SkillStats.class)
+                    .setParameter("ids", skillIds)
+                    .getResultList();
+            Map<Integer, SkillStats> bySkillId = new HashMap<>();
+            for (SkillStats row : rows) {
+                bySkillId.put(row.getSkillId(), row);
+            }
+            return bySkillId;
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to fetch skill stats");
+        }
+    }
+
+    // Inserts or updates the rows in one transaction - its own one on a GET request
+    public void saveAll(Collection<SkillStats> stats) {
+        if (stats.isEmpty()) {
+            return;
+        }
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
+            for (SkillStats row : stats) {
+                row.setSkill(em.getReference(Skill.class, row.getSkillId()));
+                em.merge(row);
+            }
+            scope.commit();
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to save skill stats");
+        }
+    }
+}
@@ -15,5 +15,7 @@ public class CandidateDTO {
     private String phone;
     private String educationBackground;
     private Set<SkillDTO> skills;
+    // optimistic lock version, also sent as ETag
+    private Long version;
 
 }
@@ -0,0 +1,17 @@
+package app.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class PopularityScoreDTO {
+    private Integer candidateId;
+    private String name;
+    private double averagePopularityScore;
+    // skills that had stats and went into the average
+    private int scoredSkills;
+
+}
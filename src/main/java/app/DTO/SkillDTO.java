@@ -1,10 +1,13 @@
 package app.DTO;
 
 import app.enums.Category;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
@@ -16,5 +19,9 @@ public class SkillDTO {
     private Category category;
     private Integer popularityScore;
     private Integer averageSalary;
+    private Boolean statsStale;
+    // when the joined skill_stats row was last refreshed - only used to work out statsStale
+    @JsonIgnore
+    private Instant statsRefreshedAt;
 
 }
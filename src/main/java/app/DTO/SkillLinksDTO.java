@@ -0,0 +1,17 @@
+package app.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SkillLinksDTO {
+    // skill ids to add to and remove from the candidate
+    private Set<Integer> link;
+    private Set<Integer> unlink;
+
+}
@@ -14,4 +14,6 @@ public class SkillStatsDTO {
     private int popularityScore;
     private int averageSalary;
     private ZonedDateTime updatedAt;
+    // set by SkillStatsCache when last-known stats are served because the provider is unavailable
+    private boolean stale;
 }
@@ -0,0 +1,161 @@
+package app.config;
+
+import app.exceptions.OverloadException;
+import app.routes.Route;
+import app.security.Principal;
+import app.security.SecurityController;
+import app.services.TokenService;
+import app.utils.ConcurrencyLimiter;
+import app.utils.RateLimiter;
+import app.utils.Utils;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+
+import java.util.*;
+
+/**
+ * Admission of requests, in the beforeMatched chain before the security filter, so requests with missing or
+ * bad tokens are limited too instead of being answered with 401 at full speed.
+ * 1. Rate limit per client: the user of a valid bearer token - looked up through the verified-token cache on
+ *    every route, open ones included - or else the IP. The limit is the one
+ *    of the client's highest role (RATE_LIMIT_{ANYONE,USER,ADMIN}_PER_MINUTE), or of the route when it is
+ *    listed in RATE_LIMIT_ROUTES ("POST /auth/login=20,GET /candidate/reports/candidates/top-by-popularity=60").
+ *    Over the limit: 429 with Retry-After. The verified principal is left in ctx.attribute("principal") for the security filter.
+ * 2. Adaptive concurrency limit for the whole server: over the limit the request gets 503 with Retry-After
+ *    at once instead of waiting in Jetty's queue.
+ */
+public class AdmissionControl {
+
+    private static final String ADMITTED_AT = "admittedAt";
+    private static final long OVERLOAD_RETRY_AFTER_SECONDS = 1;
+
+    private final int burstSeconds = (int) Utils.getConfigLong("RATE_LIMIT_BURST_SECONDS", 30);
+    private final int maxClients = (int) Utils.getConfigLong("RATE_LIMIT_MAX_CLIENTS", 100_000);
+    private final Map<Route.Role, RateLimiter> roleLimits = new EnumMap<>(Route.Role.class);
+    // "POST /auth/login" -> limiter
+    private final Map<String, RateLimiter> routeLimits = new HashMap<>();
+    private final TokenService tokenService;
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(
+            (int) Utils.getConfigLong("ADMISSION_INITIAL_LIMIT", 100),
+            (int) Utils.getConfigLong("ADMISSION_MIN_LIMIT", 20),
+            (int) Utils.getConfigLong("ADMISSION_MAX_LIMIT", 200),
+            Utils.getConfigLong("ADMISSION_LATENCY_TOLERANCE_PERCENT", 200) / 100.0,
+            Utils.getConfigLong("ADMISSION_WINDOW_MS", 1000));
+
+    public AdmissionControl(TokenService tokenService) {
+        this.tokenService = tokenService;
+        addRoleLimit(Route.Role.ANYONE, Utils.getConfigLong("RATE_LIMIT_ANYONE_PER_MINUTE", 600));
+        addRoleLimit(Route.Role.USER, Utils.getConfigLong("RATE_LIMIT_USER_PER_MINUTE", 1200));
+        addRoleLimit(Route.Role.ADMIN, Utils.getConfigLong("RATE_LIMIT_ADMIN_PER_MINUTE", 6000));
+
+        String routes = Utils.getConfigValue("RATE_LIMIT_ROUTES",
+                "POST /auth/login=20,POST /auth/register=20,GET /candidate/reports/candidates/top-by-popularity=60");
+        for (String rule : routes.split(",")) {
+            if (rule.isBlank()) continue;
+            int equals = rule.lastIndexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("RATE_LIMIT_ROUTES entry must be '<METHOD> <path>=<per minute>' but was '" + rule.trim() + "'");
+            }
+            String route = rule.substring(0, equals).trim().replaceAll("\\s+", " ");
+            int perMinute = Integer.parseInt(rule.substring(equals + 1).trim());
+            routeLimits.put(route, new RateLimiter(route, perMinute, burst(perMinute), maxClients));
+        }
+    }
+
+    // 0 = no limit for the role
+    private void addRoleLimit(Route.Role role, long perMinute) {
+        if (perMinute > 0) {
+            roleLimits.put(role, new RateLimiter(role.name(), (int) perMinute, burst((int) perMinute), maxClients));
+        }
+    }
+
+    private int burst(int perMinute) {
+        return Math.max(1, (int) ((long) perMinute * burstSeconds / 60));
+    }
+
+    /** beforeMatched filter - registered before the security filter, which still decides on access. */
+    public Handler admit() {
+        return ctx -> {
+            if (ctx.method() == HandlerType.OPTIONS) {
+                return;
+            }
+            Principal principal = principalOf(ctx);
+            if (principal != null) {
+                // the security filter reuses it instead of verifying the token a second time
+                ctx.attribute("principal", principal);
+            }
+            String client = principal != null ? "user:" + principal.username() : "ip:" + ctx.ip();
+
+            RateLimiter rateLimiter = routeLimits.isEmpty() ? null : routeLimits.get(ctx.method() + " " + routePath(ctx));
+            if (rateLimiter == null) {
+                rateLimiter = roleLimits.get(highestRole(principal));
+            }
+            if (rateLimiter != null) {
+                long waitNanos = rateLimiter.tryAcquire(client);
+                if (waitNanos > 0) {
+                    throw new OverloadException(429, "Rate limit exceeded - try again later", Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000));
+                }
+            }
+
+            if (!concurrencyLimiter.tryAcquire()) {
+                throw new OverloadException(503, "Server is at capacity - try again shortly", OVERLOAD_RETRY_AFTER_SECONDS);
+            }
+            ctx.attribute(ADMITTED_AT, System.nanoTime());
+        };
+    }
+
+    /** after handler - also runs when the handler threw. */
+    public Handler release() {
+        return ctx -> {
+            Long admittedAt = ctx.attribute(ADMITTED_AT);
+            if (admittedAt != null) {
+                ctx.attribute(ADMITTED_AT, null);
+                concurrencyLimiter.release(System.nanoTime() - admittedAt);
+            }
+        };
+    }
+
+    // The user of a valid bearer token, null without one or when it does not verify - then the IP is the client
+    private Principal principalOf(Context ctx) {
+        String header = ctx.header(Header.AUTHORIZATION);
+        String token = header == null ? null : SecurityController.tokenFromHeader(header);
+        if (token == null) {
+            return null;
+        }
+        try {
+            // a cache hit for every request after the first with the same token
+            return tokenService.verifyToken(token);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // the matched route without the /api/v1 context path
+    private static String routePath(Context ctx) {
+        String path = ctx.endpointHandlerPath();
+        String contextPath = ctx.contextPath();
+        return contextPath.length() > 1 && path.startsWith(contextPath) ? path.substring(contextPath.length()) : path;
+    }
+
+    private static Route.Role highestRole(Principal principal) {
+        if (principal == null) {
+            return Route.Role.ANYONE;
+        }
+        if ((principal.roleMask() & Route.Role.ADMIN.bit()) != 0) {
+            return Route.Role.ADMIN;
+        }
+        return (principal.roleMask() & Route.Role.USER.bit()) != 0 ? Route.Role.USER : Route.Role.ANYONE;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("concurrency", concurrencyLimiter.getStats());
+        List<Map<String, Object>> rateLimits = new ArrayList<>();
+        roleLimits.values().forEach(limiter -> rateLimits.add(limiter.getStats()));
+        routeLimits.values().forEach(limiter -> rateLimits.add(limiter.getStats()));
+        stats.put("rateLimits", rateLimits);
+        return stats;
+    }
+}
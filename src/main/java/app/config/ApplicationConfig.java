@@ -1,19 +1,36 @@
 package app.config;
 
+import app.DAO.BulkCopyDAO;
 import app.DAO.CandidateDAO;
 import app.DAO.SkillDAO;
+import app.DAO.SkillStatsDAO;
+import app.controllers.BulkCopyController;
 import app.controllers.CandidateController;
+import app.controllers.MetricsController;
+import app.routes.BulkCopyRoute;
 import app.routes.CandidateRoute;
+import app.routes.MetricsRoute;
 import app.routes.Route;
 import app.security.SecurityController;
+import app.security.SecurityRoute;
 import app.services.ApiService;
+import app.services.BulkCopyService;
+import app.services.CandidateImportService;
 import app.services.CandidateService;
+import app.services.PopularityLeaderboard;
+import app.services.SkillStatsCache;
+import app.services.SkillStatsService;
+import app.utils.Utils;
 import io.javalin.Javalin;
 import io.javalin.config.JavalinConfig;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
+import io.javalin.util.ConcurrencyUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.Map;
 
 public class ApplicationConfig {
@@ -23,24 +40,118 @@ public class ApplicationConfig {
     private static final Logger debugLogger = LoggerFactory.getLogger("app");
     private static SecurityController securityController = new SecurityController();
     private static ApplicationConfig appConfig;
+    private static SkillStatsService skillStatsService;
+    private static AdmissionControl admissionControl;
+
+    // Threads that run the handlers - platform threads from Jetty's pool, or one virtual thread per request (JDK 21)
+    public enum ExecutionMode { PLATFORM, VIRTUAL }
+
+    private static ExecutionMode executionMode = ExecutionMode.valueOf(
+            Utils.getConfigValue("EXECUTION_MODE", "platform").toUpperCase());
+
+    public static void setExecutionMode(ExecutionMode mode) {
+        executionMode = mode;
+    }
+
+    public static ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
 
     public static void configuration(JavalinConfig config){
         config.showJavalinBanner = false;
         config.bundledPlugins.enableRouteOverview("/routes");
         config.router.contextPath = "/api/v1"; // base path for all endpoints
+        config.useVirtualThreads = executionMode == ExecutionMode.VIRTUAL;
+        config.events.handlerAdded(securityController::registerRoute); // before the routes are added
         config.router.apiBuilder(routes.getRoutes());
     }
 
-    public static Javalin startServer(int port) {
+    // DI (Best practice) - shared by both startServer variants
+    private static void wireRoutes(ApiService apiService) {
         routes = new Route();
+        admissionControl = new AdmissionControl(securityController.getTokenService());
+        // the same controller serves /auth and runs the security filter
+        routes.setSecurityRoute(new SecurityRoute(securityController));
+        try {
+            securityController.loadRoles();
+        } catch (RuntimeException e) {
+            // loaded on the first registration instead
+            logger.warn("Could not load roles at start up: {}", e.getMessage());
+        }
+
+        SkillDAO skillDAO = new SkillDAO(HibernateConfig.getEntityManagerFactory());
+        SkillStatsCache skillStatsCache = new SkillStatsCache(apiService);
+        PopularityLeaderboard leaderboard = new PopularityLeaderboard();
+        if (skillStatsService != null) {
+            skillStatsService.stopScheduledRefresh(); // server restarted in the same JVM (tests)
+        }
+        skillStatsService = new SkillStatsService(
+                new SkillStatsDAO(HibernateConfig.getEntityManagerFactory()),
+                skillDAO,
+                apiService,
+                skillStatsCache,
+                leaderboard
+        );
+        skillStatsService.startScheduledRefresh();
+
+        CandidateService candidateService = new CandidateService(
+                new CandidateDAO(HibernateConfig.getEntityManagerFactory()),
+                skillDAO,
+                skillStatsService,
+                leaderboard
+        );
+        try {
+            candidateService.rebuildLeaderboard();
+        } catch (RuntimeException e) {
+            // reports answer "building" until GET /metrics/leaderboard/verify or an import rebuilds it
+            logger.warn("Could not build popularity leaderboard at start up: {}", e.getMessage());
+        }
+        CandidateImportService candidateImportService = new CandidateImportService(
+                new CandidateDAO(HibernateConfig.getEntityManagerFactory()),
+                skillDAO,
+                candidateService
+        );
+        CandidateController candidateController = new CandidateController(candidateService, candidateImportService);
+        routes.setCandidateRoute(new CandidateRoute(candidateController));
+
+        BulkCopyService bulkCopyService = new BulkCopyService(
+                new BulkCopyDAO(HibernateConfig.getEntityManagerFactory()),
+                candidateService
+        );
+        routes.setBulkCopyRoute(new BulkCopyRoute(new BulkCopyController(bulkCopyService)));
+
+        MetricsController metricsController = new MetricsController(skillStatsCache, apiService, skillStatsService, candidateService, leaderboard,
+                securityController.getTokenService(), admissionControl);
+        routes.setMetricsRoute(new MetricsRoute(metricsController));
+    }
 
-        //DI (Best practice)
-        var apiService   = new app.services.ApiService();
+    // One persistence context and transaction per request, shared by the DAOs - see UnitOfWork
+    private static void registerUnitOfWork(Javalin app) {
+        app.before(ctx -> UnitOfWork.begin(HibernateConfig.getEntityManagerFactory(),
+                ctx.method() == HandlerType.GET || ctx.method() == HandlerType.HEAD));
+        // after handlers also run when the handler threw - the exception handler has set the status by then
+        app.after(ctx -> UnitOfWork.end(ctx.statusCode() < 400));
+    }
+
+    // Rate limits and concurrency limit, before the security filter so unauthenticated floods are limited too
+    private static void registerAdmissionControl(Javalin app) {
+        app.beforeMatched(admissionControl.admit());
+        app.after(admissionControl.release());
+    }
 
-        CandidateService candidateService = new CandidateService(new CandidateDAO(HibernateConfig.getEntityManagerFactory()), new SkillDAO(HibernateConfig.getEntityManagerFactory()), apiService);
-        CandidateController candidateController = new CandidateController(candidateService);
-        CandidateRoute candidateRoute = new CandidateRoute(candidateController);
-        routes.setCandidateRoute(candidateRoute);
+    private static void startPinningMonitor() {
+        if (executionMode != ExecutionMode.VIRTUAL) {
+            return;
+        }
+        if (!ConcurrencyUtil.isLoomAvailable()) {
+            logger.warn("EXECUTION_MODE=virtual needs JDK 21 - handlers run on platform threads");
+            return;
+        }
+        PinningMonitor.start(Duration.ofMillis(Utils.getConfigLong("PINNING_THRESHOLD_MS", 20)));
+    }
+
+    public static Javalin startServer(int port) {
+        wireRoutes(new ApiService());
 
         Javalin app = Javalin.create(ApplicationConfig::configuration);
 
@@ -60,43 +171,14 @@ public class ApplicationConfig {
             logger.info("Received {} request to {}", ctx.method(), ctx.path());
         });
 
-        // Global exception mapping
-        app.exception(app.exceptions.EntityNotFoundException.class, (e, ctx) -> {
-            logger.error("Entity not found: {}", e.getMessage());
-            ctx.status(404).json(Map.of("error","ENTITY_NOT_FOUND","message",e.getMessage()));
-        });
-        app.exception(app.exceptions.ValidationException.class, (e, ctx) -> {
-            logger.error("Validation error: {}", e.getMessage());
-            ctx.status(400).json(Map.of("error","VALIDATION_ERROR","message",e.getMessage()));
-        });
-        app.exception(app.exceptions.DatabaseException.class, (e, ctx) -> {
-            logger.error("Database error: {}", e.getMessage());
-            ctx.status(500).json(Map.of("error","DATABASE_ERROR","message",e.getMessage()));
-        });
-
-        app.exception(io.javalin.http.UnauthorizedResponse.class, (e, ctx) -> {
-            ctx.status(401).json(Map.of("error","UNAUTHORIZED","message", e.getMessage()));
-        });
-        app.exception(io.javalin.http.ForbiddenResponse.class, (e, ctx) -> {
-            ctx.status(403).json(Map.of("error","FORBIDDEN","message", e.getMessage()));
-        });
-
-        // Catch-all exception handler
-        app.exception(Exception.class, (e, ctx) -> {
-            logger.error("Unhandled exception at {} {}", ctx.method(), ctx.path(), e);
-            ctx.status(500).json(Map.of("error", "INTERNAL_SERVER_ERROR", "message", "An unexpected error occurred"));
-        });
+        registerExceptionHandlers(app);
+        registerUnitOfWork(app);
 
-        // Error handler for 500 errors
-        app.error(HttpStatus.INTERNAL_SERVER_ERROR, ctx -> {
-            logger.error("Internal server error at {} {}", ctx.method(), ctx.path());
-            ctx.json(Map.of("error", "INTERNAL_SERVER_ERROR", "message", "Off limits!"));
-        });
 
+        registerAdmissionControl(app);
+        app.beforeMatched(securityController.filter());
 
-        app.beforeMatched(securityController.authenticate());
-        app.beforeMatched(securityController.authorize());
-
+        startPinningMonitor();
         app.start(port);
         return app;
     }
@@ -105,22 +187,11 @@ public class ApplicationConfig {
 
     /** Test / mock-overload */
     public static Javalin startServer(int port, ApiService apiService) {
-        routes = new Route();
-
         // Hvis ingen ApiService leveres, opret default
         if (apiService == null) {
             apiService = new ApiService();
         }
-
-        CandidateService candidateService = new CandidateService(
-                new CandidateDAO(HibernateConfig.getEntityManagerFactory()),
-                new SkillDAO(HibernateConfig.getEntityManagerFactory()),
-                apiService
-        );
-
-        CandidateController candidateController = new CandidateController(candidateService);
-        CandidateRoute candidateRoute = new CandidateRoute(candidateController);
-        routes.setCandidateRoute(candidateRoute);
+        wireRoutes(apiService);
 
         Javalin app = Javalin.create(ApplicationConfig::configuration);
 
@@ -128,6 +199,21 @@ public class ApplicationConfig {
 
         app.get("/", ctx -> ctx.result("Hello, Javalin Test!"));
 
+        registerExceptionHandlers(app);
+        registerUnitOfWork(app);
+
+
+        // Security hooks kan med fordel stadig medtages
+        registerAdmissionControl(app);
+        app.beforeMatched(securityController.filter());
+
+        startPinningMonitor();
+        app.start(port);
+        return app;
+    }
+
+
+    private static void registerExceptionHandlers(Javalin app) {
         // Global exception mapping
         app.exception(app.exceptions.EntityNotFoundException.class, (e, ctx) -> {
             logger.error("Entity not found: {}", e.getMessage());
@@ -141,6 +227,19 @@ public class ApplicationConfig {
             logger.error("Database error: {}", e.getMessage());
             ctx.status(500).json(Map.of("error","DATABASE_ERROR","message",e.getMessage()));
         });
+        app.exception(app.exceptions.ExternalServiceException.class, (e, ctx) -> {
+            logger.error("External service error: {}", e.getMessage());
+            ctx.status(503).json(Map.of("error","EXTERNAL_SERVICE_UNAVAILABLE","message",e.getMessage()));
+        });
+        app.exception(app.exceptions.OverloadException.class, (e, ctx) -> {
+            logger.warn("Request shed ({}) at {} {}: {}", e.getCode(), ctx.method(), ctx.path(), e.getMessage());
+            ctx.header(Header.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            ctx.status(e.getCode()).json(Map.of("error", e.getCode() == 429 ? "RATE_LIMITED" : "OVERLOADED", "message", e.getMessage()));
+        });
+        app.exception(app.exceptions.ApiException.class, (e, ctx) -> {
+            logger.error("API error ({}): {}", e.getCode(), e.getMessage());
+            ctx.status(e.getCode()).json(Map.of("error","API_ERROR","message",e.getMessage()));
+        });
 
         app.exception(io.javalin.http.UnauthorizedResponse.class, (e, ctx) -> {
             ctx.status(401).json(Map.of("error","UNAUTHORIZED","message", e.getMessage()));
@@ -160,17 +259,8 @@ public class ApplicationConfig {
             logger.error("Internal server error at {} {}", ctx.method(), ctx.path());
             ctx.json(Map.of("error", "INTERNAL_SERVER_ERROR", "message", "Off limits!"));
         });
-
-
-        // Security hooks kan med fordel stadig medtages
-        app.beforeMatched(securityController.authenticate());
-        app.beforeMatched(securityController.authorize());
-
-        app.start(port);
-        return app;
     }
 
-
     public static void stopServer(Javalin app) {
         app.stop();
     }
@@ -3,15 +3,24 @@ package app.config;
 import app.entities.Candidate;
 import app.entities.Role;
 import app.entities.Skill;
+import app.entities.SkillStats;
 import app.entities.User;
 import app.utils.Utils;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import jakarta.persistence.EntityManagerFactory;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 public class HibernateConfig {
@@ -44,6 +53,7 @@ public class HibernateConfig {
     // TODO: IMPORTANT: Add Entity classes here for them to be registered with Hibernate
     private static void getAnnotationConfiguration(Configuration configuration) {
          configuration.addAnnotatedClass(Skill.class);
+         configuration.addAnnotatedClass(SkillStats.class);
          configuration.addAnnotatedClass(Candidate.class);
          configuration.addAnnotatedClass(User.class);
          configuration.addAnnotatedClass(Role.class);
@@ -62,6 +72,7 @@ public class HibernateConfig {
             } else {
                 props = setDevProperties(props);
             }
+            setPoolProperties(props, forTest);
             configuration.setProperties(props);
             getAnnotationConfiguration(configuration);
 
@@ -82,12 +93,101 @@ public class HibernateConfig {
         props.put("hibernate.connection.driver_class", "org.postgresql.Driver");
         props.put("hibernate.hbm2ddl.auto", "create");  // set to "update" when in production
         props.put("hibernate.current_session_context_class", "thread");
+        // borrow the connection at the first statement and return it when the transaction ends (see UnitOfWork)
+        props.put("hibernate.connection.handling_mode", "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
         props.put("hibernate.show_sql", "false");
         props.put("hibernate.format_sql", "false");
         props.put("hibernate.use_sql_comments", "false");
+        // group inserts/updates per table and send them as JDBC batches
+        props.put("hibernate.jdbc.batch_size", "50");
+        props.put("hibernate.order_inserts", "true");
+        props.put("hibernate.order_updates", "true");
+        // second-level + query cache in a local Caffeine JCache, regions are configured in application.conf
+        props.put("hibernate.cache.use_second_level_cache", "true");
+        props.put("hibernate.cache.use_query_cache", "true");
+        props.put("hibernate.cache.region.factory_class", "jcache");
+        props.put("hibernate.javax.cache.provider", "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider");
+        props.put("hibernate.javax.cache.missing_cache_strategy", "create");
+        props.put("hibernate.generate_statistics", "true"); // needed for the region statistics
         return props;
     }
 
+    // HikariCP instead of Hibernate's built-in DriverManager pool, which is not meant for production.
+    // Values come from config.properties (dev) or environment variables (deployed), see README.
+    private static Properties setPoolProperties(Properties props, boolean forTest) {
+        props.put("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        props.put("hibernate.hikari.poolName", "exam-db-pool");
+        if (forTest) {
+            props.put("hibernate.hikari.maximumPoolSize", "5");
+            props.put("hibernate.hikari.minimumIdle", "1");
+            props.put("hibernate.hikari.connectionTimeout", "10000");
+            props.put("hibernate.hikari.leakDetectionThreshold", "10000");
+        } else {
+            props.put("hibernate.hikari.maximumPoolSize", Utils.getConfigValue("DB_POOL_MAX_SIZE", "20"));
+            props.put("hibernate.hikari.minimumIdle", Utils.getConfigValue("DB_POOL_MIN_IDLE", "5"));
+            props.put("hibernate.hikari.idleTimeout", Utils.getConfigValue("DB_POOL_IDLE_TIMEOUT_MS", "600000"));
+            props.put("hibernate.hikari.maxLifetime", Utils.getConfigValue("DB_POOL_MAX_LIFETIME_MS", "1800000"));
+            props.put("hibernate.hikari.connectionTimeout", Utils.getConfigValue("DB_POOL_CONNECTION_TIMEOUT_MS", "5000"));
+            props.put("hibernate.hikari.leakDetectionThreshold", Utils.getConfigValue("DB_POOL_LEAK_DETECTION_MS", "30000"));
+        }
+        // pgjdbc server side prepared statements: prepared after a few executions and cached per connection
+        props.put("hibernate.hikari.dataSource.prepareThreshold", Utils.getConfigValue("DB_PREPARE_THRESHOLD", "3"));
+        props.put("hibernate.hikari.dataSource.preparedStatementCacheQueries", Utils.getConfigValue("DB_PREPARED_STATEMENT_CACHE_QUERIES", "256"));
+        props.put("hibernate.hikari.dataSource.preparedStatementCacheSizeMiB", Utils.getConfigValue("DB_PREPARED_STATEMENT_CACHE_MIB", "5"));
+        // pgjdbc turns a JDBC batch of inserts into multi-row INSERT statements
+        props.put("hibernate.hikari.dataSource.reWriteBatchedInserts", "true");
+        return props;
+    }
+
+    /** Active/idle/pending connection gauges of the pool behind {@link #getEntityManagerFactory()}. */
+    public static Map<String, Object> getConnectionPoolStats() {
+        HikariDataSource dataSource = getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .requireService(ConnectionProvider.class)
+                .unwrap(HikariDataSource.class);
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("poolName", dataSource.getPoolName());
+        stats.put("maximumPoolSize", dataSource.getMaximumPoolSize());
+        stats.put("minimumIdle", dataSource.getMinimumIdle());
+        stats.put("activeConnections", pool.getActiveConnections());
+        stats.put("idleConnections", pool.getIdleConnections());
+        stats.put("totalConnections", pool.getTotalConnections());
+        stats.put("pendingThreads", pool.getThreadsAwaitingConnection());
+        stats.put("connectionTimeoutMs", dataSource.getConnectionTimeout());
+        stats.put("leakDetectionThresholdMs", dataSource.getLeakDetectionThreshold());
+        return stats;
+    }
+
+    /** Hit/miss/put counts per second-level cache region and for the query cache. */
+    public static Map<String, Object> getCacheStats() {
+        Statistics statistics = getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getCacheRegionStatistics(regionName);
+            if (region == null) continue;
+            Map<String, Object> regionStats = new LinkedHashMap<>();
+            regionStats.put("hits", region.getHitCount());
+            regionStats.put("misses", region.getMissCount());
+            regionStats.put("puts", region.getPutCount());
+            regionStats.put("elementsInMemory", region.getElementCountInMemory());
+            regions.put(regionName, regionStats);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("secondLevelHits", statistics.getSecondLevelCacheHitCount());
+        stats.put("secondLevelMisses", statistics.getSecondLevelCacheMissCount());
+        stats.put("secondLevelPuts", statistics.getSecondLevelCachePutCount());
+        stats.put("queryCacheHits", statistics.getQueryCacheHitCount());
+        stats.put("queryCacheMisses", statistics.getQueryCacheMissCount());
+        stats.put("queryCachePuts", statistics.getQueryCachePutCount());
+        stats.put("regions", regions);
+        return stats;
+    }
+
     private static Properties setDeployedProperties(Properties props) {
         String DBName = System.getenv("EXAM_DB_NAME");
         props.setProperty("hibernate.connection.url", System.getenv("CONNECTION_STR") + DBName);
@@ -0,0 +1,95 @@
+package app.config;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pinning diagnostics for EXECUTION_MODE=virtual. Listens in process for the JFR event
+ * jdk.VirtualThreadPinned: a virtual thread blocked while it held its carrier thread (inside a
+ * synchronized block or a native frame), so the carrier could not run other requests meanwhile.
+ * Pinnings in the JDBC driver or the connection pool are counted separately - those are the ones
+ * that turn a slow query into a stalled carrier.
+ */
+public final class PinningMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final List<String> JDBC_PACKAGES = List.of("org.postgresql.", "com.zaxxer.hikari.", "org.hibernate.");
+    private static final int LOGGED_FRAMES = 8;
+
+    private static final AtomicLong pinnedEvents = new AtomicLong();
+    private static final AtomicLong jdbcPinnedEvents = new AtomicLong();
+    private static final AtomicLong maxPinnedNanos = new AtomicLong();
+    private static final AtomicReference<String> lastPinnedAt = new AtomicReference<>();
+    private static RecordingStream stream;
+
+    private PinningMonitor() {
+    }
+
+    /** Starts listening - pinnings shorter than the threshold are not recorded. Calling it again does nothing. */
+    public static synchronized void start(Duration threshold) {
+        if (stream != null) {
+            return;
+        }
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, PinningMonitor::onPinned);
+        stream.setMaxAge(Duration.ofMinutes(1));
+        stream.startAsync();
+        logger.info("Watching for virtual thread pinning longer than {} ms", threshold.toMillis());
+    }
+
+    private static void onPinned(RecordedEvent event) {
+        pinnedEvents.incrementAndGet();
+        maxPinnedNanos.accumulateAndGet(event.getDuration().toNanos(), Math::max);
+
+        StringBuilder frames = new StringBuilder();
+        boolean inJdbc = false;
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> stack = event.getStackTrace().getFrames();
+            for (int i = 0; i < stack.size(); i++) {
+                String type = stack.get(i).getMethod().getType().getName();
+                inJdbc |= JDBC_PACKAGES.stream().anyMatch(type::startsWith);
+                if (i < LOGGED_FRAMES) {
+                    frames.append("\n\tat ").append(type).append('.').append(stack.get(i).getMethod().getName());
+                }
+            }
+        }
+        if (inJdbc) {
+            jdbcPinnedEvents.incrementAndGet();
+        }
+        lastPinnedAt.set(frames.toString());
+        logger.warn("Virtual thread pinned for {} ms{}{}", event.getDuration().toMillis(),
+                inJdbc ? " in JDBC/Hibernate" : "", frames);
+    }
+
+    public static synchronized void stop() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executionMode", ApplicationConfig.getExecutionMode().name().toLowerCase());
+        synchronized (PinningMonitor.class) {
+            stats.put("monitoring", stream != null);
+        }
+        stats.put("pinnedEvents", pinnedEvents.get());
+        stats.put("jdbcPinnedEvents", jdbcPinnedEvents.get());
+        stats.put("maxPinnedMs", maxPinnedNanos.get() / 1_000_000.0);
+        stats.put("lastPinnedAt", lastPinnedAt.get());
+        return stats;
+    }
+}
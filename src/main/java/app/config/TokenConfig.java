@@ -0,0 +1,42 @@
+package app.config;
+
+import app.utils.Utils;
+
+/**
+ * JWT settings, read once instead of on every token call: environment variables when DEPLOYED,
+ * otherwise config.properties. Loaded on first use, so a missing setting fails the first token
+ * call (and the next one tries again) instead of the application start.
+ */
+public record TokenConfig(String issuer, String expireTime, String secretKey) {
+
+    private static volatile TokenConfig instance;
+
+    public static TokenConfig get() {
+        TokenConfig config = instance;
+        if (config == null) {
+            synchronized (TokenConfig.class) {
+                if (instance == null) {
+                    instance = load();
+                }
+                config = instance;
+            }
+        }
+        return config;
+    }
+
+    private static TokenConfig load() {
+        if (System.getenv("DEPLOYED") != null) {
+            return new TokenConfig(System.getenv("ISSUER"), System.getenv("TOKEN_EXPIRE_TIME"), System.getenv("EXAM_SECRET_KEY"));
+        }
+        return new TokenConfig(
+                Utils.getPropertyValue("ISSUER", "config.properties"),
+                Utils.getPropertyValue("TOKEN_EXPIRE_TIME", "config.properties"),
+                Utils.getPropertyValue("SECRET_KEY", "config.properties"));
+    }
+
+    // keeps the secret out of logs
+    @Override
+    public String toString() {
+        return "TokenConfig[issuer=" + issuer + ", expireTime=" + expireTime + ", secretKey=***]";
+    }
+}
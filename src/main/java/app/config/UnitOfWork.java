@@ -0,0 +1,249 @@
+package app.config;
+
+import app.exceptions.DatabaseException;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Request scoped persistence context and transaction.
+ * ApplicationConfig binds a unit to the request thread before the handler and ends it afterwards:
+ * committed when the response is a success, rolled back otherwise. DAOs get their EntityManager
+ * through {@link #read} / {@link #write}, so inside a request they share one EntityManager, one
+ * transaction and one pooled connection. Without a bound unit (start up, scheduled refresh, test
+ * seeding) every DAO call gets its own EntityManager and transaction as before.
+ * The EntityManager is only opened on first use - requests that never touch the database borrow no connection.
+ * A read-only unit (GET) has no request transaction: each read scope runs in its own short transaction and the
+ * connection goes back to the pool when the scope closes, so a GET never holds a connection while it waits
+ * on something else (the Skill Stats API, another DAO's connection).
+ */
+public final class UnitOfWork {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnitOfWork.class);
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final EntityManagerFactory emf;
+    private final boolean readOnly;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private EntityManager em;
+
+    private UnitOfWork(EntityManagerFactory emf, boolean readOnly) {
+        this.emf = emf;
+        this.readOnly = readOnly;
+    }
+
+    /** Binds a new unit to the current thread. A read-only unit (GET requests) loads entities without dirty checking. */
+    public static void begin(EntityManagerFactory emf, boolean readOnly) {
+        UnitOfWork leftover = CURRENT.get();
+        if (leftover != null) {
+            // a previous request on this thread did not end its unit - never commit it
+            leftover.finish(false);
+        }
+        CURRENT.set(new UnitOfWork(emf, readOnly));
+    }
+
+    /**
+     * Commits or rolls back the bound unit and releases its connection.
+     * @throws DatabaseException when the commit fails or the transaction was marked for rollback by a failed DAO call
+     */
+    public static void end(boolean commit) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return;
+        }
+        CURRENT.remove();
+        unit.finish(commit);
+    }
+
+    /**
+     * Runs the action once the current unit has committed, or right away when there is nothing to wait for.
+     * For side effects outside the database (caches, the leaderboard) that must not see rolled back writes.
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null && unit.em != null && !unit.readOnly) {
+            unit.afterCommit.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * EntityManager for queries - the request's one, or an own read-only one closed with the scope.
+     * In a read-only unit the scope opens a transaction on the request's EntityManager and ends it on close,
+     * which hands the connection back to the pool.
+     */
+    public static Scope read(EntityManagerFactory emf) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null && unit.emf == emf) {
+            EntityManager em = unit.entityManager();
+            if (unit.readOnly && !em.getTransaction().isActive()) {
+                em.getTransaction().begin();
+                return new Scope(em, true, true, true);
+            }
+            return new Scope(em, true, true, false);
+        }
+        EntityManager em = emf.createEntityManager();
+        Session session = em.unwrap(Session.class);
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return new Scope(em, false, true, false);
+    }
+
+    /**
+     * EntityManager with an active transaction. Inside a write request it is the request's transaction and
+     * {@link Scope#commit()} only flushes; otherwise the scope has its own transaction.
+     * Writes during a read-only request (e.g. caching stats on a GET) get their own transaction too.
+     */
+    public static Scope write(EntityManagerFactory emf) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null && unit.emf == emf && !unit.readOnly) {
+            return new Scope(unit.entityManager(), true, false, false);
+        }
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        return new Scope(em, false, false, false);
+    }
+
+    /**
+     * Runs the work with the current unit unbound, so its DAO calls get their own EntityManagers and transactions.
+     * For work that commits in chunks of its own (bulk imports): the request's transaction would otherwise hold
+     * a second connection next to the chunk's for the whole import.
+     */
+    public static <T> T outside(Supplier<T> work) {
+        UnitOfWork unit = CURRENT.get();
+        CURRENT.remove();
+        try {
+            return work.get();
+        } finally {
+            if (unit != null) {
+                CURRENT.set(unit);
+            }
+        }
+    }
+
+    private EntityManager entityManager() {
+        if (em == null) {
+            em = emf.createEntityManager();
+            if (readOnly) {
+                Session session = em.unwrap(Session.class);
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+            } else {
+                em.getTransaction().begin();
+            }
+        }
+        return em;
+    }
+
+    private void finish(boolean commit) {
+        if (em == null) {
+            return;
+        }
+        boolean committed = false;
+        try {
+            EntityTransaction tx = em.getTransaction();
+            if (tx.isActive()) {
+                if (commit && tx.getRollbackOnly()) {
+                    tx.rollback();
+                    throw new DatabaseException("Request transaction was rolled back after a failed database call");
+                }
+                if (commit) {
+                    tx.commit();
+                    committed = true;
+                } else {
+                    tx.rollback();
+                }
+            }
+        } catch (PersistenceException e) {
+            safeRollback(em.getTransaction());
+            throw new DatabaseException("Failed to commit the request transaction");
+        } finally {
+            em.close();
+        }
+        if (committed) {
+            for (Runnable action : afterCommit) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    // the data is committed - a failing side effect must not turn the response into an error
+                    logger.warn("After commit action failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void safeRollback(EntityTransaction tx) {
+        if (tx != null && tx.isActive()) {
+            try { tx.rollback(); } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * One DAO call. Closing the scope without {@link #commit()} rolls an own transaction back, and marks the
+     * request transaction rollback-only, so a failed write is never committed with the rest of the request.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final EntityManager em;
+        private final boolean shared;
+        // the scope's own transaction on the request's EntityManager (read-only unit)
+        private final boolean ownsTransaction;
+        private boolean done;
+
+        private Scope(EntityManager em, boolean shared, boolean readOnly, boolean ownsTransaction) {
+            this.em = em;
+            this.shared = shared;
+            this.ownsTransaction = ownsTransaction;
+            this.done = readOnly;
+        }
+
+        public EntityManager entityManager() {
+            return em;
+        }
+
+        public void commit() {
+            if (shared) {
+                // statements are sent now so constraint errors surface in the DAO call that caused them
+                em.flush();
+            } else {
+                em.getTransaction().commit();
+            }
+            done = true;
+        }
+
+        @Override
+        public void close() {
+            if (ownsTransaction) {
+                // nothing to flush (manual flush mode) - ending the transaction is what releases the connection
+                EntityTransaction tx = em.getTransaction();
+                try {
+                    if (tx.isActive() && !tx.getRollbackOnly()) {
+                        tx.commit();
+                    }
+                } catch (PersistenceException e) {
+                    logger.warn("Could not end read transaction: {}", e.getMessage());
+                } finally {
+                    safeRollback(tx);
+                }
+                return;
+            }
+            if (shared) {
+                if (!done && em.getTransaction().isActive()) {
+                    em.getTransaction().setRollbackOnly();
+                }
+                return;
+            }
+            safeRollback(em.getTransaction());
+            em.close();
+        }
+    }
+}
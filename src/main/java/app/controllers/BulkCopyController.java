@@ -0,0 +1,73 @@
+package app.controllers;
+
+import app.DAO.BulkCopyDAO.Format;
+import app.DAO.BulkCopyDAO.Table;
+import app.exceptions.ValidationException;
+import app.services.BulkCopyService;
+import app.utils.Utils;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+public class BulkCopyController {
+
+    private final BulkCopyService bulkCopyService;
+    // files are only read/written here - the directory is configuration, never a request parameter
+    private final Path syncDirectory = Path.of(Utils.getConfigValue("SYNC_DIRECTORY", "sync"));
+
+    public BulkCopyController(BulkCopyService bulkCopyService) {
+        this.bulkCopyService = bulkCopyService;
+    }
+
+    // GET /sync/{table}?format=csv|binary - streams the whole table
+    public void exportTable(Context ctx) {
+        Table table = table(ctx);
+        Format format = format(ctx);
+        ctx.status(HttpStatus.OK)
+                .contentType(format == Format.CSV ? "text/csv" : "application/octet-stream")
+                .header("Content-Disposition", "attachment; filename=\"" + table.getTableName()
+                        + (format == Format.CSV ? ".csv" : ".bin") + "\"");
+        bulkCopyService.exportTable(table, format, ctx.outputStream());
+    }
+
+    // POST /sync/{table}?format=csv|binary - body in the same format as the export
+    public void importTable(Context ctx) {
+        Table table = table(ctx);
+        long rows = bulkCopyService.importTable(table, format(ctx), ctx.bodyInputStream());
+        ctx.status(HttpStatus.OK).json(Map.of("table", table.getTableName(), "rows", rows));
+    }
+
+    // POST /sync/files/export?format=csv|binary - one file per table in SYNC_DIRECTORY
+    public void exportFiles(Context ctx) throws IOException {
+        ctx.status(HttpStatus.OK).json(bulkCopyService.exportToDirectory(syncDirectory, format(ctx)));
+    }
+
+    // POST /sync/files/import?format=csv|binary - loads the files in SYNC_DIRECTORY
+    public void importFiles(Context ctx) throws IOException {
+        ctx.status(HttpStatus.OK).json(bulkCopyService.importFromDirectory(syncDirectory, format(ctx)));
+    }
+
+    private static Table table(Context ctx) {
+        String name = ctx.pathParam("table");
+        for (Table table : Table.values()) {
+            if (table.getTableName().equalsIgnoreCase(name)) {
+                return table;
+            }
+        }
+        throw new ValidationException("Unknown table: " + name);
+    }
+
+    private static Format format(Context ctx) {
+        String format = ctx.queryParam("format");
+        if (format == null || format.equalsIgnoreCase("csv")) {
+            return Format.CSV;
+        }
+        if (format.equalsIgnoreCase("binary")) {
+            return Format.BINARY;
+        }
+        throw new ValidationException("format must be 'csv' or 'binary'");
+    }
+}
@@ -1,59 +1,184 @@
 package app.controllers;
 
+import app.enums.Category;
+import app.exceptions.ApiException;
+import app.exceptions.ValidationException;
+import app.services.CandidateImportService;
 import app.services.CandidateService;
 import app.DTO.CandidateDTO;
+import app.DTO.SkillLinksDTO;
+import app.utils.Utils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 public class CandidateController {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_TOP_K = 500;
+    private static final int MAX_SKILL_LINKS = 1000;
+
     private final CandidateService candidateService;
+    private final CandidateImportService candidateImportService;
+    private final ObjectMapper objectMapper = new Utils().getObjectMapper();
 
-    public CandidateController(CandidateService candidateService) {
+    public CandidateController(CandidateService candidateService, CandidateImportService candidateImportService) {
         this.candidateService = candidateService;
+        this.candidateImportService = candidateImportService;
+    }
+
+    // POST /candidate/bulk - body is streamed, Content-Type application/x-ndjson or text/csv
+    public void bulkImport(Context ctx) {
+        String contentType = ctx.contentType() == null ? "" : ctx.contentType().toLowerCase();
+        CandidateImportService.Format format;
+        if (contentType.contains("csv")) {
+            format = CandidateImportService.Format.CSV;
+        } else if (contentType.contains("ndjson") || contentType.contains("jsonl")) {
+            format = CandidateImportService.Format.NDJSON;
+        } else {
+            throw new ValidationException("Content-Type must be application/x-ndjson or text/csv");
+        }
+        ctx.status(HttpStatus.OK).json(candidateImportService.importCandidates(ctx.bodyInputStream(), format));
     }
 
+    // GET /candidate/reports/candidates/top-by-popularity?k=50&category=PROG_LANG
     public void getTopByPopularity(Context ctx) {
-        var result = candidateService.getTopCandidateByPopularity();
+        int k = intQueryParam(ctx, "k", 1);
+        if (k < 1 || k > MAX_TOP_K) {
+            throw new ValidationException("k must be between 1 and " + MAX_TOP_K);
+        }
+        Set<Category> categories = parseCategories(ctx.queryParams("category"));
 
-        if (result.containsKey("message")) {
+        var result = candidateService.getTopCandidatesByPopularity(k, categories);
+
+        if ("building".equals(result.get("status"))) {
+            // the leaderboard is not built yet - the same request works in a moment
+            ctx.header("Retry-After", "1");
+            ctx.status(HttpStatus.SERVICE_UNAVAILABLE).json(result);
+        } else if (result.containsKey("message") && !result.containsKey("top")) {
+            // recomputed per category and nothing to rank
             ctx.status(HttpStatus.NOT_FOUND).json(result);
         } else {
             ctx.status(HttpStatus.OK).json(result);
         }
     }
 
+    // GET /candidates?category=PROG_LANG,DB&match=any|all (category may also be repeated)
     public void getByCategory(Context ctx) {
-        String category = ctx.queryParam("category");
+        Set<Category> categories = parseCategories(ctx.queryParams("category"));
 
-        if (category == null || category.isBlank()) {
+        if (categories.isEmpty()) {
             ctx.status(HttpStatus.BAD_REQUEST).result("Category parameter is required");
             return;
         }
 
+        String match = ctx.queryParam("match");
+        boolean matchAll;
+        if (match == null || match.equalsIgnoreCase("any")) {
+            matchAll = false;
+        } else if (match.equalsIgnoreCase("all")) {
+            matchAll = true;
+        } else {
+            throw new ValidationException("match must be 'any' or 'all'");
+        }
+
         // Hent kandidater baseret på kategori
-        List<CandidateDTO> candidates = candidateService.getCandidatesByCategory(category);
+        List<CandidateDTO> candidates = candidateService.getCandidatesByCategory(categories, matchAll);
 
         if (candidates.isEmpty()) {
-            ctx.status(HttpStatus.NOT_FOUND).result("No candidates found with skill category " + category);
+            ctx.status(HttpStatus.NOT_FOUND).result("No candidates found with skill category " + categories);
         } else {
             ctx.status(HttpStatus.OK).json(candidates);
         }
     }
 
-    // GET /candidates
-    public void getAll(Context ctx) {
-        var candidates = candidateService.getAllCandidates();
+    private static Set<Category> parseCategories(List<String> values) {
+        Set<Category> categories = EnumSet.noneOf(Category.class);
+        for (String value : values) {
+            for (String part : value.split(",")) {
+                if (part.isBlank()) continue;
+                try {
+                    categories.add(Category.valueOf(part.trim().toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    throw new ValidationException("Unknown category: " + part.trim());
+                }
+            }
+        }
+        return categories;
+    }
+
+    // GET /candidates?after={id}&limit={n}  or  GET /candidates?stream=true  (?category= is delegated to getByCategory)
+    public void getAll(Context ctx) throws IOException {
+        if (ctx.queryParam("category") != null) {
+            getByCategory(ctx);
+            return;
+        }
+        if ("true".equalsIgnoreCase(ctx.queryParam("stream"))) {
+            streamAll(ctx);
+            return;
+        }
+
+        int after = intQueryParam(ctx, "after", 0);
+        int limit = intQueryParam(ctx, "limit", DEFAULT_PAGE_SIZE);
+        if (after < 0) {
+            throw new ValidationException("after must be zero or a candidate id");
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        List<CandidateDTO> candidates = candidateService.getCandidatePage(after, limit);
+        // A full page means there may be more - the client continues with ?after=<last id>
+        if (candidates.size() == limit) {
+            ctx.header("X-Next-After", String.valueOf(candidates.get(candidates.size() - 1).getId()));
+        }
         ctx.status(HttpStatus.OK).json(candidates);
     }
 
+    // Writes the candidates as one JSON array while they are read from the database
+    private void streamAll(Context ctx) throws IOException {
+        ctx.status(HttpStatus.OK).contentType(ContentType.APPLICATION_JSON);
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(ctx.outputStream())) {
+            json.writeStartArray();
+            candidateService.streamAllCandidates(candidate -> {
+                try {
+                    json.writeObject(candidate);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            json.writeEndArray();
+        }
+    }
+
+    private static int intQueryParam(Context ctx, String name, int defaultValue) {
+        String value = ctx.queryParam(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ValidationException(name + " must be a number");
+        }
+    }
+
     // GET /candidates/{id}
     public void getById(Context ctx) {
         Integer id = Integer.valueOf(ctx.pathParam("id"));
         CandidateDTO candidate = candidateService.getCandidateById(id);
         if (candidate != null) {
+            ctx.header(Header.ETAG, etag(candidate));
             ctx.status(HttpStatus.OK).json(candidate);
         } else {
             ctx.status(HttpStatus.NOT_FOUND).result("Candidate not found");
@@ -72,18 +197,51 @@ public class CandidateController {
         ctx.status(HttpStatus.CREATED).json(createdCandidate);
     }
 
-    // PUT /candidates/{id}
+    // PUT /candidates/{id} - optional If-Match: "<version>" from the ETag of a GET
     public void update(Context ctx) {
         Integer id = Integer.valueOf(ctx.pathParam("id"));
         CandidateDTO candidateDTO = ctx.bodyValidator(CandidateDTO.class)
                 .check(dto -> dto.getId() == null || dto.getId().equals(id), "Body id must match path id")
                 .get();
+        Long expectedVersion = ifMatchVersion(ctx.header(Header.IF_MATCH));
 
         candidateDTO.setId(id);
-        CandidateDTO updatedCandidate = candidateService.updateCandidate(candidateDTO);
+        CandidateDTO updatedCandidate;
+        try {
+            updatedCandidate = candidateService.updateCandidate(candidateDTO, expectedVersion);
+        } catch (ApiException e) {
+            // a failed If-Match is a failed precondition, a stale body version a plain conflict
+            if (e.getCode() == HttpStatus.CONFLICT.getCode() && expectedVersion != null) {
+                throw new ApiException(HttpStatus.PRECONDITION_FAILED.getCode(), e.getMessage());
+            }
+            throw e;
+        }
+        ctx.header(Header.ETAG, etag(updatedCandidate));
         ctx.status(HttpStatus.OK).json(updatedCandidate);
     }
 
+    private static String etag(CandidateDTO candidate) {
+        return "\"" + candidate.getVersion() + "\"";
+    }
+
+    // null for no header or "*" (any version), otherwise the version inside "<version>" or W/"<version>"
+    private static Long ifMatchVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        value = value.replace("\"", "");
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // not one of our ETags, so it cannot match
+            throw new ApiException(HttpStatus.PRECONDITION_FAILED.getCode(), "If-Match does not match the current version");
+        }
+    }
+
     // DELETE /candidates/{id}
     public void delete(Context ctx) {
         Integer id = Integer.valueOf(ctx.pathParam("id"));
@@ -106,4 +264,26 @@ public class CandidateController {
             ctx.status(HttpStatus.NOT_FOUND).result("Candidate or Skill not found");
         }
     }
+
+    // POST /candidates/{candidateId}/skills  body: {"link":[1,2],"unlink":[3]}
+    public void updateSkillLinks(Context ctx) {
+        Integer candidateId = Integer.valueOf(ctx.pathParam("candidateId"));
+        SkillLinksDTO links = ctx.bodyAsClass(SkillLinksDTO.class);
+        Set<Integer> link = links.getLink() == null ? Set.of() : links.getLink();
+        Set<Integer> unlink = links.getUnlink() == null ? Set.of() : links.getUnlink();
+
+        if (link.isEmpty() && unlink.isEmpty()) {
+            throw new ValidationException("link or unlink must contain at least one skill id");
+        }
+        if (link.size() + unlink.size() > MAX_SKILL_LINKS) {
+            throw new ValidationException("At most " + MAX_SKILL_LINKS + " skill ids per request");
+        }
+        if (link.contains(null) || unlink.contains(null)) {
+            throw new ValidationException("Skill ids must not be null");
+        }
+        if (link.stream().anyMatch(unlink::contains)) {
+            throw new ValidationException("A skill id cannot be both linked and unlinked");
+        }
+        ctx.status(HttpStatus.OK).json(candidateService.updateSkillLinks(candidateId, link, unlink));
+    }
 }
@@ -0,0 +1,92 @@
+package app.controllers;
+
+import app.config.AdmissionControl;
+import app.config.HibernateConfig;
+import app.config.PinningMonitor;
+import app.security.PasswordHasher;
+import app.services.ApiService;
+import app.services.CandidateService;
+import app.services.PopularityLeaderboard;
+import app.services.SkillStatsCache;
+import app.services.SkillStatsService;
+import app.services.TokenService;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+public class MetricsController {
+
+    private final SkillStatsCache skillStatsCache;
+    private final ApiService apiService;
+    private final SkillStatsService skillStatsService;
+    private final CandidateService candidateService;
+    private final PopularityLeaderboard leaderboard;
+    private final TokenService tokenService;
+    private final AdmissionControl admissionControl;
+
+    public MetricsController(SkillStatsCache skillStatsCache, ApiService apiService, SkillStatsService skillStatsService,
+                             CandidateService candidateService, PopularityLeaderboard leaderboard, TokenService tokenService,
+                             AdmissionControl admissionControl) {
+        this.skillStatsCache = skillStatsCache;
+        this.apiService = apiService;
+        this.skillStatsService = skillStatsService;
+        this.candidateService = candidateService;
+        this.leaderboard = leaderboard;
+        this.tokenService = tokenService;
+        this.admissionControl = admissionControl;
+    }
+
+    // GET /metrics/skill-stats-cache
+    public void getSkillStatsCache(Context ctx) {
+        ctx.status(HttpStatus.OK).json(skillStatsCache.getStats());
+    }
+
+    // GET /metrics/skill-stats-upstream
+    public void getSkillStatsUpstream(Context ctx) {
+        ctx.status(HttpStatus.OK).json(apiService.getUpstreamStats());
+    }
+
+    // GET /metrics/skill-stats-refresh
+    public void getSkillStatsRefresh(Context ctx) {
+        ctx.status(HttpStatus.OK).json(skillStatsService.getRefreshStats());
+    }
+
+    // GET /metrics/leaderboard
+    public void getLeaderboard(Context ctx) {
+        ctx.status(HttpStatus.OK).json(leaderboard.getStats());
+    }
+
+    // GET /metrics/leaderboard/verify - full recompute, rebuilds the leaderboard if it has drifted
+    public void verifyLeaderboard(Context ctx) {
+        ctx.status(HttpStatus.OK).json(candidateService.verifyLeaderboard());
+    }
+
+    // GET /metrics/token-cache - verified JWTs
+    public void getTokenCache(Context ctx) {
+        ctx.status(HttpStatus.OK).json(tokenService.getVerifiedTokenCacheStats());
+    }
+
+    // GET /metrics/password-hashing - BCrypt pool of login and register
+    public void getPasswordHashing(Context ctx) {
+        ctx.status(HttpStatus.OK).json(PasswordHasher.getInstance().getStats());
+    }
+
+    // GET /metrics/admission - rate limits and the adaptive concurrency limit
+    public void getAdmission(Context ctx) {
+        ctx.status(HttpStatus.OK).json(admissionControl.getStats());
+    }
+
+    // GET /metrics/virtual-threads - execution mode and pinned virtual threads
+    public void getVirtualThreads(Context ctx) {
+        ctx.status(HttpStatus.OK).json(PinningMonitor.getStats());
+    }
+
+    // GET /metrics/db-pool
+    public void getDbPool(Context ctx) {
+        ctx.status(HttpStatus.OK).json(HibernateConfig.getConnectionPoolStats());
+    }
+
+    // GET /metrics/cache - Hibernate second-level and query cache
+    public void getCache(Context ctx) {
+        ctx.status(HttpStatus.OK).json(HibernateConfig.getCacheStats());
+    }
+}
@@ -4,6 +4,9 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.util.Set;
 
@@ -11,11 +14,14 @@ import java.util.Set;
 @AllArgsConstructor
 @Data
 @Entity
+@DynamicUpdate // UPDATE statements only contain the changed columns
 @Table(name = "candidate")
 public class Candidate {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence instead of IDENTITY: ids are known before the insert, so inserts can be JDBC batched
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "candidate_seq")
+    @SequenceGenerator(name = "candidate_seq", sequenceName = "candidate_seq", allocationSize = 50)
     @Column(name = "candidate_id", nullable = false, unique = true)
     private Integer id;
 
@@ -25,11 +31,19 @@ public class Candidate {
 
     private String educationBackground;
 
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    // cached as skill ids per candidate, the skills themselves come from the Skill region
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(
             name = "candidate_skill",
             joinColumns = @JoinColumn(name = "candidate_id"),
-            inverseJoinColumns = @JoinColumn(name = "skill_id")
+            inverseJoinColumns = @JoinColumn(name = "skill_id"),
+            // the primary key (candidate_id, skill_id) covers lookups by candidate, this one covers lookups by skill
+            indexes = @Index(name = "idx_candidate_skill_skill_id", columnList = "skill_id")
     )
     private Set<Skill> skills;
 
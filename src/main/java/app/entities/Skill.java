@@ -5,12 +5,20 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
 @Entity
-@Table(name = "skill")
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) // small, read-mostly catalogue
+@Table(name = "skill",
+        indexes = @Index(name = "idx_skill_category", columnList = "category"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_skill_slug", columnNames = "slug"))
 public class Skill {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -25,9 +33,34 @@ public class Skill {
 
     private String description;
 
+    // Join key with the Skill Stats API - derived from the name, stored so it can be looked up by index
+    @Column(nullable = false, length = 255)
+    private String slug;
+
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     public Skill(String name, String description, Category category) {
         this.name = name;
         this.description = description;
         this.category = category;
+        this.slug = toSlug(name);
+    }
+
+    public void setName(String name) {
+        this.name = name;
+        this.slug = toSlug(name);
+    }
+
+    @PrePersist
+    @PreUpdate
+    private void assignSlug() {
+        slug = toSlug(name);
+    }
+
+    public static String toSlug(String name) {
+        if (name == null) return null;
+        return name.toLowerCase().replace(" ", "-");
     }
 }
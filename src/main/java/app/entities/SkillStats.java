@@ -0,0 +1,54 @@
+package app.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+
+/**
+ * Local copy of the market data the Skill Stats API has for a skill.
+ * Refreshed in the background by SkillStatsService, read on the request path.
+ * Keyed by skill id only - the slug stays on the skill, so a renamed skill keeps its stats.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Entity
+@Table(name = "skill_stats")
+public class SkillStats {
+
+    @Id
+    @Column(name = "skill_id")
+    private Integer skillId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "skill_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Skill skill;
+
+    private int popularityScore;
+
+    private int averageSalary;
+
+    // when the provider last changed the numbers
+    private ZonedDateTime providerUpdatedAt;
+
+    // when we last fetched them
+    @Column(nullable = false)
+    private Instant refreshedAt;
+
+    public SkillStats(Integer skillId, int popularityScore, int averageSalary,
+                      ZonedDateTime providerUpdatedAt, Instant refreshedAt) {
+        this.skillId = skillId;
+        this.popularityScore = popularityScore;
+        this.averageSalary = averageSalary;
+        this.providerUpdatedAt = providerUpdatedAt;
+        this.refreshedAt = refreshedAt;
+    }
+}
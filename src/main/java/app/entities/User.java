@@ -1,11 +1,11 @@
 package app.entities;
 
+import app.security.PasswordHasher;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -28,14 +28,9 @@ public class User {
     @ManyToMany(mappedBy = "users", fetch = FetchType.EAGER)
     private Set<Role> roles = new HashSet<>();
 
-    public User(String username, String password) {
-        this.username = username;
-        String hashed = BCrypt.hashpw(password, BCrypt.gensalt());
-        this.password = hashed;
-    }
-
+    // the password is hashed by PasswordHasher before a User is made - see SecurityDAO
     public boolean verifyPassword(String pw) {
-        return BCrypt.checkpw(pw, password);
+        return PasswordHasher.getInstance().verify(pw, password);
     }
 
     public void addRole(Role role) {
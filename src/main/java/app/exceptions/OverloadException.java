@@ -0,0 +1,15 @@
+package app.exceptions;
+
+// 429 (client over its rate limit) or 503 (server at capacity) - answered with a Retry-After header
+public class OverloadException extends ApiException {
+    private final long retryAfterSeconds;
+
+    public OverloadException(int code, String msg, long retryAfterSeconds) {
+        super(code, msg);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
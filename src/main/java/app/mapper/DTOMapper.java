@@ -23,7 +23,8 @@ public class DTOMapper {
                 candidate.getName(),
                 candidate.getPhone(),
                 candidate.getEducationBackground(),
-                skillDTOs
+                skillDTOs,
+                candidate.getVersion()
         );
     }
 
@@ -35,16 +36,11 @@ public class DTOMapper {
         dto.setDescription(skill.getDescription());
         dto.setCategory(skill.getCategory());
 
-        dto.setSlug(generateSlug(skill.getName()));
+        dto.setSlug(skill.getSlug());
 
         return dto;
     }
 
-    private static String generateSlug(String name) {
-        if (name == null) return null;
-        return name.toLowerCase().replace(" ", "-");
-    }
-
     // Convert CandidateDTO to Candidate entity
     public static Candidate toCandidateEntity(CandidateDTO candidateDTO) {
         Candidate candidate = new Candidate();
@@ -52,6 +48,7 @@ public class DTOMapper {
         candidate.setName(candidateDTO.getName());
         candidate.setPhone(candidateDTO.getPhone());
         candidate.setEducationBackground(candidateDTO.getEducationBackground());
+        candidate.setVersion(candidateDTO.getVersion());
         return candidate;
     }
 
@@ -0,0 +1,25 @@
+package app.routes;
+
+import app.controllers.BulkCopyController;
+import io.javalin.apibuilder.EndpointGroup;
+
+import static io.javalin.apibuilder.ApiBuilder.get;
+import static io.javalin.apibuilder.ApiBuilder.post;
+
+public class BulkCopyRoute {
+
+    private final BulkCopyController bulkCopyController;
+
+    public BulkCopyRoute(BulkCopyController bulkCopyController) {
+        this.bulkCopyController = bulkCopyController;
+    }
+
+    public EndpointGroup getRoutes() {
+        return () -> {
+            post("/files/export", bulkCopyController::exportFiles, Route.Role.ADMIN);
+            post("/files/import", bulkCopyController::importFiles, Route.Role.ADMIN);
+            get("/{table}", bulkCopyController::exportTable, Route.Role.ADMIN);
+            post("/{table}", bulkCopyController::importTable, Route.Role.ADMIN);
+        };
+    }
+}
@@ -20,9 +20,11 @@ public class CandidateRoute {
             get("/{id}", candidateController::getById);
             get("/category", candidateController::getByCategory);
             post("/", candidateController::create);
+            post("/bulk", candidateController::bulkImport);
             put("/{id}", candidateController::update);
             delete("/{id}", candidateController::delete);
             put("/{candidateId}/skills/{skillId}", candidateController::linkSkillToCandidate);
+            post("/{candidateId}/skills", candidateController::updateSkillLinks);
             get("/reports/candidates/top-by-popularity", candidateController::getTopByPopularity);
         };
     }
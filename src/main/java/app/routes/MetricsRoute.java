@@ -0,0 +1,31 @@
+package app.routes;
+
+import app.controllers.MetricsController;
+import io.javalin.apibuilder.EndpointGroup;
+
+import static io.javalin.apibuilder.ApiBuilder.get;
+
+public class MetricsRoute {
+
+    private final MetricsController metricsController;
+
+    public MetricsRoute(MetricsController metricsController) {
+        this.metricsController = metricsController;
+    }
+
+    public EndpointGroup getRoutes() {
+        return () -> {
+            get("/skill-stats-cache", metricsController::getSkillStatsCache, Route.Role.ADMIN);
+            get("/skill-stats-upstream", metricsController::getSkillStatsUpstream, Route.Role.ADMIN);
+            get("/skill-stats-refresh", metricsController::getSkillStatsRefresh, Route.Role.ADMIN);
+            get("/leaderboard", metricsController::getLeaderboard, Route.Role.ADMIN);
+            get("/leaderboard/verify", metricsController::verifyLeaderboard, Route.Role.ADMIN);
+            get("/db-pool", metricsController::getDbPool, Route.Role.ADMIN);
+            get("/cache", metricsController::getCache, Route.Role.ADMIN);
+            get("/token-cache", metricsController::getTokenCache, Route.Role.ADMIN);
+            get("/password-hashing", metricsController::getPasswordHashing, Route.Role.ADMIN);
+            get("/admission", metricsController::getAdmission, Route.Role.ADMIN);
+            get("/virtual-threads", metricsController::getVirtualThreads, Route.Role.ADMIN);
+        };
+    }
+}
@@ -13,9 +13,14 @@ import static io.javalin.apibuilder.ApiBuilder.path;
 
 public class Route {
 
-    private SecurityRoute securityRoute = new SecurityRoute();
+    @Setter
+    private SecurityRoute securityRoute;
     @Setter
     private CandidateRoute candidateRoute;
+    @Setter
+    private MetricsRoute metricsRoute;
+    @Setter
+    private BulkCopyRoute bulkCopyRoute;
     private static ObjectMapper jsonMapper = new Utils().getObjectMapper();
 
 
@@ -25,6 +30,8 @@ public class Route {
             path("/auth", securityRoute.getSecurityRoutes());
             path("/protected", getSecuredRoutes());
             path("/candidate", candidateRoute.getRoutes());
+            path("/metrics", metricsRoute.getRoutes());
+            path("/sync", bulkCopyRoute.getRoutes());
         };
     }
 
@@ -34,6 +41,13 @@ public class Route {
                 get("/admin_demo",(ctx)->ctx.json(jsonMapper.createObjectNode().put("msg",  "Hello from ADMIN Protected")),Role.ADMIN);
         };
     }
-    public enum Role implements RouteRole { ANYONE, USER, ADMIN }
+    public enum Role implements RouteRole {
+        ANYONE, USER, ADMIN;
+
+        // bit in a role mask, see RouteAccess
+        public int bit() {
+            return 1 << ordinal();
+        }
+    }
 }
 
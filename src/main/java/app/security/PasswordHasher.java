@@ -0,0 +1,254 @@
+package app.security;
+
+import app.exceptions.ApiException;
+import app.exceptions.OverloadException;
+import app.utils.Utils;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * BCrypt off the request threads. Hashing and verification run on a small fixed pool with a bounded
+ * queue, so a burst of logins waits in line (or is turned away with 503) instead of occupying every
+ * Jetty thread while candidate requests starve.
+ * The work factor is PASSWORD_HASH_COST, or - when it is not set - calibrated at start up to the highest
+ * cost whose hash takes at most PASSWORD_HASH_TARGET_MS on this machine.
+ */
+public final class PasswordHasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+    private static final int BCRYPT_MIN_COST = 4;
+    private static final int BCRYPT_MAX_COST = 31;
+
+    private final int cost;
+    private final long targetMillis;
+    private final int threads;
+    private final int queueSize;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    // checked instead of a real hash when the user does not exist
+    private final String dummyHash;
+
+    private final AtomicLong hashes = new AtomicLong();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong rehashes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    private static final class Holder {
+        private static final PasswordHasher INSTANCE = fromConfig();
+    }
+
+    /** The application's hasher - one pool for every SecurityDAO. */
+    public static PasswordHasher getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static PasswordHasher fromConfig() {
+        long target = Utils.getConfigLong("PASSWORD_HASH_TARGET_MS", 250);
+        int minCost = (int) Utils.getConfigLong("PASSWORD_HASH_MIN_COST", 10);
+        int maxCost = (int) Utils.getConfigLong("PASSWORD_HASH_MAX_COST", 14);
+        int configured = (int) Utils.getConfigLong("PASSWORD_HASH_COST", 0);
+        int cost = configured > 0 ? configured : calibrate(target, minCost, maxCost);
+        return new PasswordHasher(cost, target,
+                (int) Utils.getConfigLong("PASSWORD_HASH_THREADS", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                (int) Utils.getConfigLong("PASSWORD_HASH_QUEUE_SIZE", 64),
+                Utils.getConfigLong("PASSWORD_HASH_TIMEOUT_MS", 5000));
+    }
+
+    public PasswordHasher(int cost, long targetMillis, int threads, int queueSize, long timeoutMillis) {
+        if (cost < BCRYPT_MIN_COST || cost > BCRYPT_MAX_COST) {
+            throw new IllegalArgumentException("BCrypt cost must be between " + BCRYPT_MIN_COST + " and " + BCRYPT_MAX_COST + " but was " + cost);
+        }
+        this.cost = cost;
+        this.targetMillis = targetMillis;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.dummyHash = BCrypt.hashpw(UUID.randomUUID().toString(), BCrypt.gensalt(cost));
+    }
+
+    /**
+     * Every cost step doubles the work, so one measurement at the minimum cost is enough to pick the step.
+     * The first hash warms up the JIT and is not counted.
+     */
+    static int calibrate(long targetMillis, int minCost, int maxCost) {
+        BCrypt.hashpw("calibration", BCrypt.gensalt(minCost));
+        long started = System.nanoTime();
+        BCrypt.hashpw("calibration", BCrypt.gensalt(minCost));
+        double millis = Math.max((System.nanoTime() - started) / 1_000_000.0, 0.001);
+
+        int cost = minCost;
+        while (cost < maxCost && millis * 2 <= targetMillis) {
+            millis *= 2;
+            cost++;
+        }
+        logger.info("BCrypt cost calibrated to {} (~{} ms per hash, target {} ms)", cost, Math.round(millis), targetMillis);
+        return cost;
+    }
+
+    /** BCrypt hash of the password with the current cost. */
+    public String hash(String password) {
+        return await(submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+    }
+
+    /** false for a wrong password as well as for a stored value that is not a BCrypt hash. */
+    public boolean verify(String password, String hash) {
+        return await(submit(() -> {
+            verifications.incrementAndGet();
+            try {
+                return BCrypt.checkpw(password, hash);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }));
+    }
+
+    /**
+     * The same BCrypt work as {@link #verify} for a login with an unknown username, against a hash of the
+     * current cost - so the response time does not tell which usernames exist.
+     */
+    public void verifyUnknownUser(String password) {
+        verify(password, dummyHash);
+    }
+
+    /** true when the hash was made with another cost than the current one. */
+    public boolean needsRehash(String hash) {
+        return hashCost(hash) != cost;
+    }
+
+    /**
+     * Hashes the password again in the background and hands the new hash to {@code store} on the same
+     * hashing thread - used after a login with an outdated cost. {@code store} must handle its own errors.
+     * @return false when it was skipped because the queue is full (the next login tries again)
+     */
+    public boolean rehashInBackground(String password, Consumer<String> store) {
+        Callable<String> rehash = timed(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost)), System.nanoTime());
+        try {
+            executor.execute(() -> {
+                try {
+                    store.accept(rehash.call());
+                } catch (Exception e) {
+                    logger.warn("Rehash failed: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        rehashes.incrementAndGet();
+        return true;
+    }
+
+    // "$2a$10$..." -> 10
+    static int hashCost(String hash) {
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(6) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // a FutureTask: cancelled before a worker picks it up, it is skipped instead of hashed for nobody
+    private <T> Future<T> submit(Callable<T> work) {
+        try {
+            return executor.submit(timed(work, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new OverloadException(503, "Too many login attempts right now - try again shortly", 1);
+        }
+    }
+
+    private <T> Callable<T> timed(Callable<T> work, long queued) {
+        return () -> {
+            long started = System.nanoTime();
+            record(queueWaitNanos, maxQueueWaitNanos, started - queued);
+            try {
+                return work.call();
+            } finally {
+                hashes.incrementAndGet();
+                record(hashNanos, maxHashNanos, System.nanoTime() - started);
+            }
+        };
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            cancel(future);
+            throw new OverloadException(503, "Password check timed out - try again shortly", 1);
+        } catch (InterruptedException e) {
+            cancel(future);
+            Thread.currentThread().interrupt();
+            throw new ApiException(503, "Password check was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // frees the queue slot too - a task already running is left to finish
+    private void cancel(Future<?> future) {
+        if (future.cancel(false) && future instanceof Runnable queued) {
+            executor.remove(queued);
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public Map<String, Object> getStats() {
+        long hashCount = hashes.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cost", cost);
+        stats.put("targetMs", targetMillis);
+        stats.put("threads", threads);
+        stats.put("queueSize", queueSize);
+        stats.put("queued", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("hashes", hashCount);
+        stats.put("verifications", verifications.get());
+        stats.put("rehashes", rehashes.get());
+        stats.put("rejected", rejected.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgHashMs", hashCount == 0 ? 0.0 : hashNanos.get() / 1_000_000.0 / hashCount);
+        stats.put("maxHashMs", maxHashNanos.get() / 1_000_000.0);
+        stats.put("avgQueueWaitMs", hashCount == 0 ? 0.0 : queueWaitNanos.get() / 1_000_000.0 / hashCount);
+        stats.put("maxQueueWaitMs", maxQueueWaitNanos.get() / 1_000_000.0);
+        return stats;
+    }
+}
@@ -0,0 +1,8 @@
+package app.security;
+
+/**
+ * The authenticated caller as the security filter needs it: the roles are a bitmask of
+ * {@link app.routes.Route.Role} bits, so a route check is a single AND.
+ */
+public record Principal(String username, int roleMask) {
+}
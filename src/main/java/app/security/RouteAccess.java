@@ -0,0 +1,85 @@
+package app.security;
+
+import app.routes.Route;
+import io.javalin.http.HandlerType;
+import io.javalin.security.RouteRole;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Role requirements per endpoint, compiled once when Javalin adds the route (handlerAdded event)
+ * into an EnumSet and a bitmask. The security filter only does a map lookup and an AND per request.
+ * An endpoint that was not registered (e.g. a path format that differs from the event's) is compiled
+ * on its first request and kept as well.
+ */
+public class RouteAccess {
+
+    public record Requirement(EnumSet<Route.Role> roles, int mask, boolean open) {
+
+        public boolean allows(int roleMask) {
+            return open || (roleMask & mask) != 0;
+        }
+    }
+
+    private final Map<HandlerType, Map<String, Requirement>> byMethod = new EnumMap<>(HandlerType.class);
+
+    public RouteAccess() {
+        for (HandlerType method : HandlerType.values()) {
+            byMethod.put(method, new ConcurrentHashMap<>());
+        }
+    }
+
+    public void register(HandlerType method, String path, Set<? extends RouteRole> roles) {
+        byMethod.get(method).put(path, compile(roles));
+    }
+
+    public Requirement get(HandlerType method, String path, Set<RouteRole> routeRoles) {
+        Map<String, Requirement> requirements = byMethod.get(method);
+        Requirement requirement = requirements.get(path);
+        if (requirement == null) {
+            requirement = compile(routeRoles);
+            requirements.put(path, requirement);
+        }
+        return requirement;
+    }
+
+    public int size() {
+        return byMethod.values().stream().mapToInt(Map::size).sum();
+    }
+
+    // No roles or ANYONE: open to everybody, no token needed
+    public static Requirement compile(Collection<? extends RouteRole> roles) {
+        EnumSet<Route.Role> required = EnumSet.noneOf(Route.Role.class);
+        for (RouteRole role : roles) {
+            if (role instanceof Route.Role appRole) {
+                required.add(appRole);
+            }
+        }
+        int mask = 0;
+        for (Route.Role role : required) {
+            mask |= role.bit();
+        }
+        return new Requirement(required, mask, required.isEmpty() || required.contains(Route.Role.ANYONE));
+    }
+
+    /** Bitmask of the role names in a token - names that are not a {@link Route.Role} are ignored. */
+    public static int maskOf(Collection<String> roleNames) {
+        int mask = 0;
+        if (roleNames == null) {
+            return mask;
+        }
+        for (String name : roleNames) {
+            for (Route.Role role : Route.Role.values()) {
+                if (role.name().equalsIgnoreCase(name)) {
+                    mask |= role.bit();
+                }
+            }
+        }
+        return mask;
+    }
+}
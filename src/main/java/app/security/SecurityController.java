@@ -3,34 +3,43 @@ package app.security;
 import app.config.HibernateConfig;
 import app.entities.User;
 import app.exceptions.ValidationException;
+import app.routes.Route;
 import app.security.interfaces.ISecurityController;
-import app.security.interfaces.ISecurityDAO;
 import app.services.SecurityService;
 import app.services.TokenService;
 import app.utils.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.event.HandlerMetaInfo;
 import io.javalin.http.*;
 import dk.bugelhartmann.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.EnumSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 
 public class SecurityController implements ISecurityController {
-    ISecurityDAO securityDAO = new SecurityDAO(HibernateConfig.getEntityManagerFactory());
+    private final SecurityDAO securityDAO = new SecurityDAO(HibernateConfig.getEntityManagerFactory());
     ObjectMapper objectMapper = new Utils().getObjectMapper();
     private final SecurityService securityService;
     private static final Logger logger = LoggerFactory.getLogger(SecurityController.class);
     private TokenService tokenService = new TokenService();
+    private final RouteAccess routeAccess = new RouteAccess();
 
     public SecurityController() {
-        this.securityService = new SecurityService(
-                new SecurityDAO(HibernateConfig.getEntityManagerFactory())
-        );
+        this.securityService = new SecurityService(securityDAO);
     }
 
+    // role cache of the registration, filled at start up
+    public void loadRoles() {
+        securityDAO.loadRoles();
+    }
+
+
+    public TokenService getTokenService() {
+        return tokenService;
+    }
 
     public void healthCheck(Context ctx) {
         ctx.status(200).json("{\"msg\": \"API is up and running\"}");
@@ -70,21 +79,45 @@ public class SecurityController implements ISecurityController {
         };
     }
 
+    // handlerAdded listener: every route's role requirement is compiled once, when Javalin adds it
+    public void registerRoute(HandlerMetaInfo route) {
+        routeAccess.register(route.getHttpMethod(), route.getPath(), route.getRoles());
+    }
+
+    /**
+     * authenticate() and authorize() in one pass, registered as the beforeMatched filter:
+     * compiled requirement lookup, token parse and (cached) verification, one bitmask check.
+     */
+    public Handler filter() {
+        return (Context ctx) -> {
+            if (ctx.method() == HandlerType.OPTIONS) {
+                ctx.status(200);
+                return;
+            }
+            RouteAccess.Requirement requirement = requirement(ctx);
+            if (requirement.open())
+                return;
+
+            Principal principal = validateAndGetPrincipalFromToken(ctx);
+            ctx.attribute("principal", principal);
+            checkRoles(principal, requirement);
+        };
+    }
+
     @Override
     public Handler authenticate() {
         return (Context ctx) -> {// This is a preflight request => no need for authentication
-            if (ctx.method().toString().equals("OPTIONS")) {
+            if (ctx.method() == HandlerType.OPTIONS) {
                 ctx.status(200);
                 return;
             }
             // If the endpoint is not protected with roles or is open to ANYONE role, then skip
-            Set<String> allowedRoles = ctx.routeRoles().stream().map(role -> role.toString().toUpperCase()).collect(Collectors.toSet());
-            if (securityService.isOpenEndpoint(allowedRoles))
+            if (requirement(ctx).open())
                 return;
 
             // If there is no token we do not allow entry
-            UserDTO verifiedTokenUser = validateAndGetUserFromToken(ctx);
-            ctx.attribute("user", verifiedTokenUser); // -> ctx.attribute("user") in ApplicationConfig beforeMatched filter
+            Principal principal = validateAndGetPrincipalFromToken(ctx);
+            ctx.attribute("principal", principal); // -> ctx.attribute("principal") in authorize()
         };
     }
 
@@ -95,50 +128,76 @@ public class SecurityController implements ISecurityController {
     @Override
     public Handler authorize() {
         return (Context ctx) -> {
-
-            Set<String> allowedRoles = ctx.routeRoles()
-                    .stream()
-                    .map(role -> role.toString().toUpperCase())
-                    .collect(Collectors.toSet());
+            RouteAccess.Requirement requirement = requirement(ctx);
 
             // 1. Check if the endpoint is open to all (either by not having any roles or having the ANYONE role set
-            if (securityService.isOpenEndpoint(allowedRoles))
+            if (requirement.open())
                 return;
             // 2. Get user and ensure it is not null
-            UserDTO user = ctx.attribute("user");
-            if (user == null) {
+            Principal principal = ctx.attribute("principal");
+            if (principal == null) {
                 throw new ForbiddenResponse("No user was added from the token");
             }
             // 3. See if any role matches
-            if (!securityService.userHasAllowedRole(user, allowedRoles))
-                throw new ForbiddenResponse("User was not authorized with roles: " + user.getRoles() + ". Needed roles are: " + allowedRoles);
+            checkRoles(principal, requirement);
         };
     }
 
+    private RouteAccess.Requirement requirement(Context ctx) {
+        return routeAccess.get(ctx.method(), ctx.endpointHandlerPath(), ctx.routeRoles());
+    }
 
+    private static void checkRoles(Principal principal, RouteAccess.Requirement requirement) {
+        if (!requirement.allows(principal.roleMask())) {
+            // the role names are only built for the error message
+            Set<Route.Role> roles = EnumSet.noneOf(Route.Role.class);
+            for (Route.Role role : Route.Role.values()) {
+                if ((principal.roleMask() & role.bit()) != 0) roles.add(role);
+            }
+            throw new ForbiddenResponse("User was not authorized with roles: " + roles + ". Needed roles are: " + requirement.roles());
+        }
+    }
 
     private static String getToken(Context ctx) {
-        String header = ctx.header("Authorization");
+        String header = ctx.header(Header.AUTHORIZATION);
         if (header == null) {
             throw new UnauthorizedResponse("Authorization header is missing"); // UnauthorizedResponse is javalin 6 specific but response is not json!
         }
 
         // If the Authorization Header was malformed, then no entry
-        String token = header.split(" ")[1];
+        String token = tokenFromHeader(header);
         if (token == null) {
             throw new UnauthorizedResponse("Authorization header is malformed"); // UnauthorizedResponse is javalin 6 specific but response is not json!
         }
         return token;
     }
 
+    /** The token of a "<scheme> <token>" header, read with indexOf instead of split. null when there is none. */
+    public static String tokenFromHeader(String header) {
+        int start = header.indexOf(' ') + 1;
+        while (start > 0 && start < header.length() && header.charAt(start) == ' ') {
+            start++;
+        }
+        if (start == 0 || start == header.length()) {
+            return null;
+        }
+        int end = header.indexOf(' ', start);
+        return header.substring(start, end < 0 ? header.length() : end);
+    }
+
 
-    private UserDTO validateAndGetUserFromToken(Context ctx) {
+    private Principal validateAndGetPrincipalFromToken(Context ctx) {
+        // already verified by AdmissionControl for this request
+        Principal admitted = ctx.attribute("principal");
+        if (admitted != null) {
+            return admitted;
+        }
         String token = getToken(ctx);
-        UserDTO verifiedTokenUser = tokenService.verifyToken(token);
-        if (verifiedTokenUser == null) {
+        Principal principal = tokenService.verifyToken(token);
+        if (principal == null) {
             throw new UnauthorizedResponse("Invalid user or token"); // UnauthorizedResponse is javalin 6 specific but response is not json!
         }
-        return verifiedTokenUser;
+        return principal;
     }
 
 
@@ -1,6 +1,9 @@
 package app.security;
 
 import app.config.HibernateConfig;
+import app.config.UnitOfWork;
+import app.exceptions.ApiException;
+import app.exceptions.DatabaseException;
 import app.exceptions.EntityNotFoundException;
 import app.exceptions.ValidationException;
 import app.security.interfaces.ISecurityDAO;
@@ -8,31 +11,92 @@ import app.entities.Role;
 import app.entities.User;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class SecurityDAO implements ISecurityDAO {
+    private static final Logger logger = LoggerFactory.getLogger(SecurityDAO.class);
+
     EntityManagerFactory emf;
+    private final PasswordHasher passwordHasher;
+    // rolename cache, see loadRoles()
+    private final Set<String> knownRoles = ConcurrentHashMap.newKeySet();
+    private volatile boolean rolesLoaded;
 
     public SecurityDAO(EntityManagerFactory emf){
+        this(emf, PasswordHasher.getInstance());
+    }
+
+    public SecurityDAO(EntityManagerFactory emf, PasswordHasher passwordHasher){
         this.emf = emf;
+        this.passwordHasher = passwordHasher;
     }
 
     @Override
     public User getVerifiedUser(String username, String password) throws ValidationException {
+        User foundUser;
+        // the connection goes back to the pool before the (slow) BCrypt check
         try(EntityManager em = emf.createEntityManager()){
-            User foundUser = em.find(User.class, username);
-            if(foundUser.verifyPassword(password)){
-                return foundUser;
-            } else {
-                throw new ValidationException("User or password is incorrect");
+            foundUser = em.find(User.class, username);
+        }
+        if(foundUser == null){
+            // same BCrypt work as for a known user, so the response time does not give away which usernames exist
+            passwordHasher.verifyUnknownUser(password);
+            throw new ValidationException("User or password is incorrect");
+        }
+        if(!passwordHasher.verify(password, foundUser.getPassword())){
+            throw new ValidationException("User or password is incorrect");
+        }
+        if(passwordHasher.needsRehash(foundUser.getPassword())){
+            rehashInBackground(foundUser.getUsername(), foundUser.getPassword(), password);
+        }
+        return foundUser;
+    }
+
+    // The cost has changed since the hash was made - store a new hash without delaying the login
+    // The new hash is stored from the hashing thread, not from the common ForkJoinPool
+    private void rehashInBackground(String username, String oldHash, String password) {
+        boolean queued = passwordHasher.rehashInBackground(password, newHash -> {
+            try {
+                updatePasswordHash(username, oldHash, newHash);
+            } catch (RuntimeException e) {
+                logger.warn("Could not store rehashed password of {}: {}", username, e.getMessage());
             }
+        });
+        if (!queued) {
+            logger.debug("Rehash of {} skipped - the hashing queue is full", username);
+        }
+    }
+
+    // an own transaction on the hashing thread - the scope rolls it back if the update fails
+    private void updatePasswordHash(String username, String oldHash, String newHash) {
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            // only if the password was not changed meanwhile
+            scope.entityManager()
+                    .createQuery("UPDATE User u SET u.password = :newHash WHERE u.username = :username AND u.password = :oldHash")
+                    .setParameter("newHash", newHash)
+                    .setParameter("username", username)
+                    .setParameter("oldHash", oldHash)
+                    .executeUpdate();
+            scope.commit();
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to store rehashed password of " + username);
         }
     }
 
     @Override
     public User createUser(String username, String password) {
+        // hashed before a connection is taken
+        String hashed = passwordHasher.hash(password);
         try(EntityManager em = emf.createEntityManager()){
-            User user = new User(username, password);
+            User user = new User(username, hashed, new HashSet<>());
             em.getTransaction().begin();
             em.persist(user);
             em.getTransaction().commit();
@@ -42,6 +106,40 @@ public class SecurityDAO implements ISecurityDAO {
 
     }
 
+    /**
+     * New user with one role in one transaction: plain INSERTs, the role is resolved from the role cache.
+     * A taken username is found by ON CONFLICT instead of a constraint violation.
+     * Each INSERT names its table as query space - a native statement without one makes Hibernate drop
+     * every second-level cache region and cached query on each signup.
+     * @throws ApiException 409 when the username is taken
+     */
+    @Override
+    public User registerUser(String username, String password, String rolename) {
+        // hashed before a connection is taken
+        String hashed = passwordHasher.hash(password);
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
+            boolean newRole = ensureRole(em, rolename);
+            int inserted = em.createNativeQuery("INSERT INTO users (username, password) VALUES (?, ?) ON CONFLICT DO NOTHING")
+                    .unwrap(NativeQuery.class)
+                    .addSynchronizedQuerySpace("users")
+                    .setParameter(1, username)
+                    .setParameter(2, hashed)
+                    .executeUpdate();
+            if (inserted == 0) {
+                throw new ApiException(409, "Username " + username + " is already taken");
+            }
+            linkRole(em, username, rolename);
+            scope.commit();
+            if (newRole) {
+                UnitOfWork.afterCommit(() -> knownRoles.add(rolename));
+            }
+            return new User(username, hashed, new HashSet<>(Set.of(new Role(rolename))));
+        } catch (PersistenceException e) {
+            throw new DatabaseException("Failed to register user " + username);
+        }
+    }
+
     @Override
     public Role createRole(String rolename) {
         try(EntityManager em = emf.createEntityManager()){
@@ -49,6 +147,7 @@ public class SecurityDAO implements ISecurityDAO {
             em.getTransaction().begin();
             em.persist(role);
             em.getTransaction().commit();
+            knownRoles.add(rolename);
             return role;
         }
 
@@ -58,20 +157,61 @@ public class SecurityDAO implements ISecurityDAO {
     @Override
     public User addUserRole(String username, String role) {
 
-        try(EntityManager em = emf.createEntityManager()){
+        try (UnitOfWork.Scope scope = UnitOfWork.write(emf)) {
+            EntityManager em = scope.entityManager();
             User foundUser = em.find(User.class, username);
-            Role foundRole = em.find(Role.class, role);
 
-            if(foundRole == null || foundUser == null){
+            if(!isKnownRole(em, role) || foundUser == null){
                 throw new EntityNotFoundException("User or role does not exist");
             }
-            em.getTransaction().begin();
-            foundUser.addRole(foundRole);
-            em.getTransaction().commit();
+            // link row only - adding through Role.users would load every user that has the role
+            linkRole(em, username, role);
+            scope.commit();
+            foundUser.getRoles().add(em.getReference(Role.class, role));
             return foundUser;
         }
     }
 
+    /** Fills the role cache - called at start up, otherwise on first use. Roles are never deleted, so it only grows. */
+    public void loadRoles() {
+        try(EntityManager em = emf.createEntityManager()){
+            knownRoles.addAll(em.createQuery("SELECT r.rolename FROM Role r", String.class).getResultList());
+        }
+        rolesLoaded = true;
+    }
+
+    private boolean isKnownRole(EntityManager em, String rolename) {
+        if (!rolesLoaded) {
+            loadRoles();
+        }
+        return knownRoles.contains(rolename) || em.find(Role.class, rolename) != null;
+    }
+
+    // true when the role was inserted now - it goes into the cache once the transaction has committed
+    private boolean ensureRole(EntityManager em, String rolename) {
+        if (!rolesLoaded) {
+            loadRoles();
+        }
+        if (knownRoles.contains(rolename)) {
+            return false;
+        }
+        em.createNativeQuery("INSERT INTO roles (rolename) VALUES (?) ON CONFLICT DO NOTHING")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace("roles")
+                .setParameter(1, rolename)
+                .executeUpdate();
+        return true;
+    }
+
+    private static void linkRole(EntityManager em, String username, String rolename) {
+        em.createNativeQuery("INSERT INTO user_role (role_id, user_id) VALUES (?, ?) ON CONFLICT DO NOTHING")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace("user_role")
+                .setParameter(1, rolename)
+                .setParameter(2, username)
+                .executeUpdate();
+    }
+
     public static void main(String[] args) {
         ISecurityDAO dao = new SecurityDAO(HibernateConfig.getEntityManagerFactory());
 
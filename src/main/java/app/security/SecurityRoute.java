@@ -9,7 +9,11 @@ import static io.javalin.apibuilder.ApiBuilder.*;
 
 public class SecurityRoute {
 
-    ISecurityController securityController = new SecurityController();
+    private final ISecurityController securityController;
+
+    public SecurityRoute(ISecurityController securityController) {
+        this.securityController = securityController;
+    }
 
     public EndpointGroup getSecurityRoutes () {
         return () -> {
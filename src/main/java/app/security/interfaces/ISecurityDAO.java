@@ -6,7 +6,8 @@ import io.javalin.validation.ValidationException;
 
 public interface ISecurityDAO {
     User getVerifiedUser(String username, String password) throws ValidationException; // used for login
-    User createUser(String username, String password); // used for register
+    User createUser(String username, String password);
+    User registerUser(String username, String password, String role); // used for register - user and role link in one transaction
     Role createRole(String role);
     User addUserRole(String username, String role);
 }
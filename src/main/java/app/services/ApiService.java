@@ -2,67 +2,323 @@ package app.services;
 
 import app.DTO.SkillStatsResponse;
 import app.exceptions.ApiException;
+import app.utils.CircuitBreaker;
 import app.utils.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.List;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
 import app.DTO.SkillStatsDTO;
 
 
 public class ApiService {
 
+    private static final String SKILL_STATS_URL = "https://apiprovider.cphbusinessapps.dk/api/v1/skills/stats?slugs=";
+    // Keeps every request line far below the usual 8 KB limit of servers and proxies
+    private static final int MAX_URL_LENGTH = 2000;
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(Utils.getConfigLong("API_CONNECT_TIMEOUT_MS", 2000));
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Utils.getConfigLong("API_REQUEST_TIMEOUT_MS", 5000));
+    private static final int MAX_CONCURRENT_CALLS = (int) Utils.getConfigLong("API_MAX_CONCURRENT_CALLS", 16);
+
+    // One client for the whole application: it keeps connections (and TLS sessions) alive between
+    // calls and multiplexes concurrent requests over one HTTP/2 connection when the server supports it.
+    private static final HttpClient SHARED_HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
 
+    // slug -> pending upstream result, shared by every caller asking for that slug meanwhile
+    private final ConcurrentHashMap<String, CompletableFuture<SkillStatsDTO>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requestedSlugs = new AtomicLong();
+    private final AtomicLong coalescedSlugs = new AtomicLong();
+    private final AtomicLong upstreamCalls = new AtomicLong();
+
+    private final Semaphore bulkhead = new Semaphore(MAX_CONCURRENT_CALLS);
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("skill-stats-api",
+            (int) Utils.getConfigLong("API_BREAKER_WINDOW_SIZE", 20),
+            (int) Utils.getConfigLong("API_BREAKER_MINIMUM_CALLS", 10),
+            Utils.getConfigLong("API_BREAKER_FAILURE_RATE_PERCENT", 50) / 100.0,
+            Utils.getConfigLong("API_BREAKER_SLOW_CALL_RATE_PERCENT", 80) / 100.0,
+            Utils.getConfigLong("API_BREAKER_SLOW_CALL_MS", 2000),
+            Utils.getConfigLong("API_BREAKER_OPEN_SECONDS", 30) * 1000,
+            (int) Utils.getConfigLong("API_BREAKER_HALF_OPEN_CALLS", 3));
+
     public ApiService() {
-        this.httpClient = HttpClient.newHttpClient();
+        this(SHARED_HTTP_CLIENT);
+    }
+
+    public ApiService(HttpClient httpClient) {
+        this.httpClient = httpClient;
         this.objectMapper = new Utils().getObjectMapper();
     }
 
     public List<SkillStatsDTO> fetchSkillStats(List<String> slugs) {
-        String slugsParam = String.join(",", slugs);
-        String url = "https://apiprovider.cphbusinessapps.dk/api/v1/skills/stats?slugs=" + slugsParam;
+        return join(fetchSkillStatsAsync(slugs));
+    }
 
+    /**
+     * Non-blocking lookup of the given slugs. The response is parsed while it is read from the
+     * connection instead of being copied into a String first.
+     */
+    public CompletableFuture<List<SkillStatsDTO>> fetchSkillStatsAsync(List<String> slugs) {
+        String slugsParam = slugs.stream()
+                .map(ApiService::encode)
+                .collect(Collectors.joining(","));
+        String url = SKILL_STATS_URL + slugsParam;
 
-        String responseJson = fetchFromApi(url);
+        return fetchFromApiAsync(url).thenApply(body -> {
+            // Deserialisér JSON svar direkte fra strømmen til en liste af SkillStatsDTO
+            try (InputStream in = body) {
+                SkillStatsResponse skillStatsResponse = objectMapper.readValue(in, SkillStatsResponse.class);
+                return skillStatsResponse.getData() == null ? List.<SkillStatsDTO>of() : skillStatsResponse.getData();
+            } catch (IOException e) {
+                throw new ApiException(502, "Error parsing Skill Stats API response: " + e.getMessage());
+            }
+        });
+    }
 
-        // Deserialisér JSON svar til en liste af SkillStatsDTO
-        try {
-            SkillStatsResponse skillStatsResponse = objectMapper.readValue(responseJson, SkillStatsResponse.class);
-            return skillStatsResponse.getData();
-        } catch (Exception e) {
-            throw new ApiException(500, "Error parsing Skill Stats API response: " + e.getMessage());
+    /**
+     * Fetches stats for any number of slugs. Duplicates are removed, the rest is split into
+     * chunks that fit in one URL and the chunks are requested concurrently.
+     * @return stats keyed by slug - slugs the provider does not know are absent
+     */
+    public Map<String, SkillStatsDTO> fetchSkillStatsBatched(Collection<String> slugs) {
+        return join(fetchSkillStatsCoalesced(slugs));
+    }
+
+    /**
+     * Single-flight variant of {@link #fetchSkillStatsBatched}: a slug that is already being
+     * fetched for another caller is not requested again, the caller waits for the pending result.
+     * Only the slugs nobody is waiting for go upstream.
+     */
+    public CompletableFuture<Map<String, SkillStatsDTO>> fetchSkillStatsCoalesced(Collection<String> slugs) {
+        Map<String, CompletableFuture<SkillStatsDTO>> pending = new LinkedHashMap<>();
+        Map<String, CompletableFuture<SkillStatsDTO>> owned = new LinkedHashMap<>();
+
+        for (String slug : slugs) {
+            if (slug == null || slug.isBlank() || pending.containsKey(slug)) continue;
+            requestedSlugs.incrementAndGet();
+            CompletableFuture<SkillStatsDTO> mine = new CompletableFuture<>();
+            CompletableFuture<SkillStatsDTO> existing = inFlight.putIfAbsent(slug, mine);
+            if (existing != null) {
+                coalescedSlugs.incrementAndGet();
+                pending.put(slug, existing);
+            } else {
+                owned.put(slug, mine);
+                pending.put(slug, mine);
+            }
+        }
+
+        if (!owned.isEmpty()) {
+            fetchOwned(owned);
         }
+
+        return CompletableFuture.allOf(pending.values().toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Map<String, SkillStatsDTO> result = new HashMap<>();
+                    pending.forEach((slug, future) -> {
+                        SkillStatsDTO stats = future.join();
+                        if (stats != null) result.put(slug, stats);
+                    });
+                    return result;
+                });
     }
 
+    // Requests the slugs this caller is responsible for and completes their shared futures
+    private void fetchOwned(Map<String, CompletableFuture<SkillStatsDTO>> owned) {
+        for (List<String> chunk : chunkSlugs(owned.keySet())) {
+            guardedFetch(chunk).whenComplete((stats, error) -> {
+                Map<String, SkillStatsDTO> bySlug = error == null ? toMap(stats) : Map.of();
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                for (String slug : chunk) {
+                    CompletableFuture<SkillStatsDTO> future = owned.get(slug);
+                    // unregister first, so callers arriving after this point start a fresh lookup
+                    inFlight.remove(slug, future);
+                    if (cause != null) {
+                        future.completeExceptionally(toApiException(cause));
+                    } else {
+                        future.complete(bySlug.get(slug));
+                    }
+                }
+            });
+        }
+    }
 
-    public String fetchFromApi(String Uri){
-        // sende HTTP-forespørgsler (GET, POST osv.) til en server.
-        HttpClient httpClient = HttpClient.newHttpClient();   //newHttpClient(): laver en klient med standard-indstillinger (fx bruger den systemets proxy og HTTP/2 hvis muligt).
+    // Every upstream request passes the bulkhead (max concurrent calls) and the circuit breaker
+    private CompletableFuture<List<SkillStatsDTO>> guardedFetch(List<String> chunk) {
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejections.incrementAndGet();
+            return CompletableFuture.failedFuture(new ApiException(503, "Too many concurrent Skill Stats API calls"));
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            bulkhead.release();
+            return CompletableFuture.failedFuture(new ApiException(503, "Skill Stats API circuit breaker is open"));
+        }
 
+        upstreamCalls.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<List<SkillStatsDTO>> call;
         try {
-            // Create a request
-            HttpRequest request = HttpRequest.newBuilder() //starter en request-builder.
-                    .uri(new URI(Uri)) //fortæller hvilken URL (endpoint) man vil kalde. new URI(Uri) laver ens String
-                    .GET()  // definerer, at det er en GET-request.
-                    .build(); // bygger selve request-objektet.
+            call = fetchSkillStatsAsync(chunk);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        return call.whenComplete((stats, error) -> {
+            bulkhead.release();
+            long durationMillis = (System.nanoTime() - start) / 1_000_000;
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            // 4xx answers mean the provider is up - only 5xx, timeouts and transport errors count
+            if (cause == null || (cause instanceof ApiException apiException && apiException.getCode() < 500)) {
+                circuitBreaker.onSuccess(durationMillis);
+            } else {
+                circuitBreaker.onError(durationMillis);
+            }
+        });
+    }
+
+    public Map<String, Object> getUpstreamStats() {
+        long requested = requestedSlugs.get();
+        long coalesced = coalescedSlugs.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requestedSlugs", requested);
+        stats.put("coalescedSlugs", coalesced);
+        stats.put("coalescedRatio", requested == 0 ? 0.0 : (double) coalesced / requested);
+        stats.put("upstreamCalls", upstreamCalls.get());
+        stats.put("inFlightSlugs", inFlight.size());
+        stats.put("bulkheadMaxConcurrentCalls", MAX_CONCURRENT_CALLS);
+        stats.put("bulkheadAvailable", bulkhead.availablePermits());
+        stats.put("bulkheadRejections", bulkheadRejections.get());
+        stats.put("circuitBreaker", circuitBreaker.getStats());
+        return stats;
+    }
 
-            // Send request (get weather data) -få JSON som en stor tekststreng.
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());   //“Læs hele svaret fra serveren som en String”.
+    // Splits the slugs so that base url + comma separated, encoded slugs never exceeds MAX_URL_LENGTH
+    List<List<String>> chunkSlugs(Collection<String> slugs) {
+        int budget = MAX_URL_LENGTH - SKILL_STATS_URL.length();
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int length = 0;
 
+        for (String slug : slugs) {
+            if (slug == null || slug.isBlank()) continue;
+            int cost = encode(slug).length() + (current.isEmpty() ? 0 : 1);
+            if (!current.isEmpty() && length + cost > budget) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                length = 0;
+                cost -= 1;
+            }
+            current.add(slug);
+            length += cost;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
 
-            // Check if the request went well
-            if (response.statusCode() == 200) {
-                return response.body();
-            } else {
-                throw new ApiException(response.statusCode(), "Error in fetching");
+    private static Map<String, SkillStatsDTO> toMap(List<SkillStatsDTO> stats) {
+        Map<String, SkillStatsDTO> map = new HashMap<>();
+        if (stats != null) {
+            for (SkillStatsDTO stat : stats) {
+                if (stat != null && stat.getSlug() != null) {
+                    map.put(stat.getSlug(), stat);
+                }
             }
-        } catch (Exception e){
-            throw new ApiException(500, e.getMessage());
         }
+        return map;
+    }
+
+    private static String encode(String slug) {
+        return URLEncoder.encode(slug, StandardCharsets.UTF_8);
+    }
+
+    // Waits for an upstream future and surfaces the ApiException instead of the CompletionException wrapper
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw toApiException(e.getCause());
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static ApiException toApiException(Throwable e) {
+        if (e instanceof ApiException apiException) {
+            return apiException;
+        }
+        if (e instanceof HttpTimeoutException) {
+            return new ApiException(504, "Skill Stats API timed out: " + e.getMessage());
+        }
+        return new ApiException(502, "Skill Stats API unavailable: " + e.getMessage());
+    }
+
+
+    public String fetchFromApi(String Uri) {
+        try (InputStream body = join(fetchFromApiAsync(Uri))) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ApiException(502, e.getMessage());
+        }
+    }
+
+    /**
+     * GET on the shared client. Completes with the body as a stream when the status is 200,
+     * otherwise exceptionally with an {@link ApiException}. The caller must close the stream.
+     */
+    public CompletableFuture<InputStream> fetchFromApiAsync(String Uri) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder()
+                    .uri(new URI(Uri))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new ApiException(500, "Invalid URI: " + e.getMessage()));
+        }
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw toApiException(error instanceof CompletionException ? error.getCause() : error);
+                    }
+                    // Check if the request went well
+                    if (response.statusCode() != 200) {
+                        closeQuietly(response.body()); // hands the connection back to the pool
+                        throw new ApiException(response.statusCode(), "Error in fetching");
+                    }
+                    return response.body();
+                });
     }
-}
\ No newline at end of file
+}
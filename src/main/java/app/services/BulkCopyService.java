@@ -0,0 +1,105 @@
+package app.services;
+
+import app.DAO.BulkCopyDAO;
+import app.DAO.BulkCopyDAO.Format;
+import app.DAO.BulkCopyDAO.Table;
+import app.config.UnitOfWork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Export/import of skills, candidates and their links for the data warehouse sync, using COPY.
+ * Tables are handled in dependency order (skills and candidates before the links), one file per table.
+ */
+public class BulkCopyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkCopyService.class);
+    private static final List<Table> TABLE_ORDER = List.of(Table.SKILL, Table.CANDIDATE, Table.CANDIDATE_SKILL);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BulkCopyDAO bulkCopyDAO;
+    private final CandidateService candidateService;
+
+    public BulkCopyService(BulkCopyDAO bulkCopyDAO, CandidateService candidateService) {
+        this.bulkCopyDAO = bulkCopyDAO;
+        this.candidateService = candidateService;
+    }
+
+    public long exportTable(Table table, Format format, OutputStream out) {
+        long started = System.nanoTime();
+        long rows = bulkCopyDAO.exportTable(table, format, out);
+        logger.info("Exported {} rows from {} in {} ms", rows, table.getTableName(), (System.nanoTime() - started) / 1_000_000);
+        return rows;
+    }
+
+    // COPY and the leaderboard rebuild use their own sessions - the request's unit stays unbound meanwhile
+    public long importTable(Table table, Format format, InputStream in) {
+        return UnitOfWork.outside(() -> importAndRebuild(table, format, in));
+    }
+
+    private long importAndRebuild(Table table, Format format, InputStream in) {
+        long started = System.nanoTime();
+        long rows = bulkCopyDAO.importTable(table, format, in);
+        logger.info("Imported {} rows into {} in {} ms", rows, table.getTableName(), (System.nanoTime() - started) / 1_000_000);
+        if (table != Table.SKILL) {
+            // candidates changed past the service
+            candidateService.rebuildLeaderboard();
+        }
+        return rows;
+    }
+
+    /** Writes skill, candidate and candidate_skill to {@code <table>.csv} / {@code <table>.bin} in the directory. */
+    public Map<String, Long> exportToDirectory(Path directory, Format format) throws IOException {
+        Files.createDirectories(directory);
+        Map<String, Long> rows = new LinkedHashMap<>();
+        for (Table table : TABLE_ORDER) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(fileFor(directory, table, format)), BUFFER_SIZE)) {
+                rows.put(table.getTableName(), bulkCopyDAO.exportTable(table, format, out));
+            }
+        }
+        logger.info("Exported {} to {}", rows, directory);
+        return rows;
+    }
+
+    /** Loads the files written by {@link #exportToDirectory}; missing files are skipped. */
+    public Map<String, Long> importFromDirectory(Path directory, Format format) throws IOException {
+        try {
+            return UnitOfWork.outside(() -> {
+                try {
+                    return importFiles(directory, format);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Map<String, Long> importFiles(Path directory, Format format) throws IOException {
+        Map<String, Long> rows = new LinkedHashMap<>();
+        for (Table table : TABLE_ORDER) {
+            Path file = fileFor(directory, table, format);
+            if (!Files.exists(file)) continue;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+                rows.put(table.getTableName(), bulkCopyDAO.importTable(table, format, in));
+            }
+        }
+        if (!rows.isEmpty()) {
+            candidateService.rebuildLeaderboard();
+        }
+        logger.info("Imported {} from {}", rows, directory);
+        return rows;
+    }
+
+    private static Path fileFor(Path directory, Table table, Format format) {
+        return directory.resolve(table.getTableName() + (format == Format.CSV ? ".csv" : ".bin"));
+    }
+}
@@ -0,0 +1,265 @@
+package app.services;
+
+import app.DAO.CandidateDAO;
+import app.DAO.SkillDAO;
+import app.config.UnitOfWork;
+import app.entities.Candidate;
+import app.entities.Skill;
+import app.exceptions.DatabaseException;
+import app.exceptions.ValidationException;
+import app.utils.Utils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Bulk import of candidates from NDJSON or CSV, read as a stream.
+ * Rows are stored in chunks: skills of a chunk are resolved with one query and the chunk is
+ * inserted in one batched transaction. If a chunk fails, its rows are retried one by one so a
+ * bad row only fails itself. Every rejected row is reported with its line number.
+ */
+public class CandidateImportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateImportService.class);
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final List<String> CSV_COLUMNS = List.of("name", "phone", "educationBackground", "skills");
+
+    private final CandidateDAO candidateDAO;
+    private final SkillDAO skillDAO;
+    private final CandidateService candidateService;
+    private final ObjectMapper objectMapper = new Utils().getObjectMapper();
+    private final int chunkSize = (int) Utils.getConfigLong("BULK_IMPORT_CHUNK_SIZE", 1000);
+
+    private record ImportRow(int line, String name, String phone, String educationBackground, List<String> skills) {
+    }
+
+    private static class Report {
+        int received;
+        int imported;
+        int failed;
+        final List<Map<String, Object>> errors = new ArrayList<>();
+
+        void fail(int line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(Map.of("line", line, "message", message));
+            }
+        }
+    }
+
+    public CandidateImportService(CandidateDAO candidateDAO, SkillDAO skillDAO, CandidateService candidateService) {
+        this.candidateDAO = candidateDAO;
+        this.skillDAO = skillDAO;
+        this.candidateService = candidateService;
+    }
+
+    /**
+     * NDJSON: one object per line with name, phone, educationBackground and skills (array of slugs).
+     * CSV: header line with name,phone,educationBackground,skills - skills separated by ';'.
+     * @return counts and the first {@value #MAX_REPORTED_ERRORS} row errors
+     */
+    public Map<String, Object> importCandidates(InputStream body, Format format) {
+        // every chunk commits on its own - the request's unit would hold a second connection meanwhile
+        return UnitOfWork.outside(() -> importChunks(body, format));
+    }
+
+    private Map<String, Object> importChunks(InputStream body, Format format) {
+        long started = System.nanoTime();
+        Report report = new Report();
+        List<ImportRow> chunk = new ArrayList<>(chunkSize);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            Map<String, Integer> csvColumns = null;
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+
+                if (format == Format.CSV && csvColumns == null) {
+                    csvColumns = parseCsvHeader(line);
+                    continue;
+                }
+                report.received++;
+                try {
+                    chunk.add(format == Format.CSV ? parseCsvRow(lineNumber, line, csvColumns) : parseJsonRow(lineNumber, line));
+                } catch (ValidationException e) {
+                    report.fail(lineNumber, e.getMessage());
+                }
+                if (chunk.size() == chunkSize) {
+                    storeChunk(chunk, report);
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read import body", e);
+        }
+        storeChunk(chunk, report);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("received", report.received);
+        result.put("imported", report.imported);
+        result.put("failed", report.failed);
+        result.put("errors", report.errors);
+        result.put("durationMs", (System.nanoTime() - started) / 1_000_000);
+        logger.info("Imported {} of {} candidates ({} failed)", report.imported, report.received, report.failed);
+        return result;
+    }
+
+    private void storeChunk(List<ImportRow> rows, Report report) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Set<String> slugs = new HashSet<>();
+        rows.forEach(row -> slugs.addAll(row.skills()));
+        Map<String, Skill> skillsBySlug = skillDAO.getBySlugs(slugs);
+
+        List<ImportRow> valid = new ArrayList<>();
+        for (ImportRow row : rows) {
+            List<String> unknown = row.skills().stream().filter(slug -> !skillsBySlug.containsKey(slug)).toList();
+            if (unknown.isEmpty()) {
+                valid.add(row);
+            } else {
+                report.fail(row.line(), "Unknown skill(s): " + String.join(", ", unknown));
+            }
+        }
+
+        List<Candidate> stored = new ArrayList<>();
+        try {
+            stored.addAll(candidateDAO.insertBatch(toCandidates(valid, skillsBySlug)));
+        } catch (DatabaseException chunkFailure) {
+            // find the bad rows - each row in its own transaction
+            for (ImportRow row : valid) {
+                try {
+                    stored.addAll(candidateDAO.insertBatch(toCandidates(List.of(row), skillsBySlug)));
+                } catch (DatabaseException e) {
+                    report.fail(row.line(), e.getMessage());
+                }
+            }
+        }
+        report.imported += stored.size();
+        candidateService.trackCandidates(stored);
+    }
+
+    private static List<Candidate> toCandidates(List<ImportRow> rows, Map<String, Skill> skillsBySlug) {
+        List<Candidate> candidates = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            Candidate candidate = new Candidate(row.name(), row.phone(), row.educationBackground());
+            Set<Skill> skills = new HashSet<>();
+            row.skills().forEach(slug -> skills.add(skillsBySlug.get(slug)));
+            candidate.setSkills(skills);
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    private ImportRow parseJsonRow(int line, String text) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw new ValidationException("Invalid JSON");
+        }
+        if (!node.isObject()) {
+            throw new ValidationException("Expected a JSON object");
+        }
+        List<String> skills = new ArrayList<>();
+        JsonNode skillsNode = node.path("skills");
+        if (skillsNode.isArray()) {
+            skillsNode.forEach(skill -> skills.add(skill.asText()));
+        } else if (!skillsNode.isMissingNode() && !skillsNode.isNull()) {
+            throw new ValidationException("skills must be an array of skill slugs");
+        }
+        return toRow(line, text(node, "name"), text(node, "phone"), text(node, "educationBackground"), skills);
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static Map<String, Integer> parseCsvHeader(String line) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> header = splitCsv(line);
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim(), i);
+        }
+        if (!columns.containsKey("name")) {
+            throw new ValidationException("CSV header must contain the columns " + String.join(",", CSV_COLUMNS));
+        }
+        return columns;
+    }
+
+    private static ImportRow parseCsvRow(int line, String text, Map<String, Integer> columns) {
+        List<String> values = splitCsv(text);
+        String skillsValue = column(values, columns, "skills");
+        List<String> skills = new ArrayList<>();
+        if (skillsValue != null) {
+            for (String slug : skillsValue.split(";")) {
+                if (!slug.isBlank()) skills.add(slug.trim());
+            }
+        }
+        return toRow(line, column(values, columns, "name"), column(values, columns, "phone"),
+                column(values, columns, "educationBackground"), skills);
+    }
+
+    private static String column(List<String> values, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= values.size()) return null;
+        String value = values.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // Comma separated values, double quotes around values that contain commas ("" inside quotes is a quote)
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new ValidationException("Unterminated quote");
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    private static ImportRow toRow(int line, String name, String phone, String educationBackground, List<String> skills) {
+        if (name == null || name.isBlank()) {
+            throw new ValidationException("Candidate name is required");
+        }
+        // accept skill names as well as slugs
+        List<String> slugs = skills.stream().map(skill -> Skill.toSlug(skill.trim())).distinct().toList();
+        return new ImportRow(line, name.trim(), phone, educationBackground, slugs);
+    }
+}
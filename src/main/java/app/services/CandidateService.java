@@ -3,50 +3,49 @@ package app.services;
 import app.DAO.CandidateDAO;
 import app.DAO.SkillDAO;
 import app.DTO.CandidateDTO;
+import app.DTO.PopularityScoreDTO;
 import app.DTO.SkillDTO;
-import app.DTO.SkillStatsDTO;
+import app.config.UnitOfWork;
 import app.entities.Candidate;
 import app.entities.Skill;
+import app.enums.Category;
+import app.exceptions.ExternalServiceException;
 import app.mapper.DTOMapper;
+import app.utils.TopK;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class CandidateService {
 
     private final CandidateDAO candidateDAO;
     private final SkillDAO skillDAO;
-    private final ApiService apiService;
+    private final SkillStatsService skillStatsService;
+    private final PopularityLeaderboard leaderboard;
 
-    public CandidateService(CandidateDAO candidateDAO, SkillDAO skillDAO, ApiService apiService) {
+    public CandidateService(CandidateDAO candidateDAO, SkillDAO skillDAO, SkillStatsService skillStatsService,
+                            PopularityLeaderboard leaderboard) {
         this.candidateDAO = candidateDAO;
         this.skillDAO = skillDAO;
-        this.apiService = apiService;
+        this.skillStatsService = skillStatsService;
+        this.leaderboard = leaderboard;
     }
 
-    public List<CandidateDTO> getCandidatesByCategory(String category) {
-
-        List<Candidate> candidates = candidateDAO.getAll();
+    public List<CandidateDTO> getCandidatesByCategory(Set<Category> categories, boolean matchAll) {
+        return candidateDAO.getCandidatesByCategories(categories, matchAll);
+    }
 
-        return candidates.stream()
-                .filter(candidate -> candidate.getSkills().stream()
-                        .anyMatch(skill -> skill.getCategory().equals(category)))
-                .map(DTOMapper::toCandidateDTO)
-                .collect(Collectors.toList());
+    public List<CandidateDTO> getCandidatePage(Integer afterId, int limit) {
+        return candidateDAO.getPage(afterId, limit);
     }
 
-    public List<CandidateDTO> getAllCandidates() {
-        List<Candidate> candidates = candidateDAO.getAll();
-        return candidates.stream()
-                .map(DTOMapper::toCandidateDTO)
-                .collect(Collectors.toList());
+    public void streamAllCandidates(Consumer<CandidateDTO> consumer) {
+        candidateDAO.streamAll(consumer);
     }
 
     public CandidateDTO getCandidateById(Integer id) {
-        Candidate candidate = candidateDAO.getById(id);
-        if (candidate == null) return null;
-
-        CandidateDTO candidateDTO = DTOMapper.toCandidateDTO(candidate);
+        CandidateDTO candidateDTO = candidateDAO.getDTOById(id);
+        if (candidateDTO == null) return null;
 
         if (candidateDTO.getSkills() == null || candidateDTO.getSkills().isEmpty()) {
             candidateDTO.setSkills(Set.of());
@@ -54,119 +53,269 @@ public class CandidateService {
         }
 
 
-        List<String> slugs = candidateDTO.getSkills().stream()
-                .map(SkillDTO::getSlug)
-                .filter(Objects::nonNull)
-                .toList();
-
-        List<SkillStatsDTO> skillStats = apiService.fetchSkillStats(slugs);
-
-        Map<String, SkillStatsDTO> statsMap = skillStats.stream()
-                .collect(Collectors.toMap(SkillStatsDTO::getSlug, s -> s));
-
-
-        candidateDTO.getSkills().forEach(skillDTO -> {
-            SkillStatsDTO stat = statsMap.get(skillDTO.getSlug());
-            if (stat != null) {
-                skillDTO.setPopularityScore(stat.getPopularityScore());
-                skillDTO.setAverageSalary(stat.getAverageSalary());
-            }
-        });
-
+        // Market data is joined in from the local skill_stats table; only skills without a row go to the provider
+        fillStatsIfAvailable(candidateDTO.getSkills());
         return candidateDTO;
     }
 
+    // Skill has no stored stats, the provider is down and nothing is cached - the candidate is still served, just without market data for it
+    private void fillStatsIfAvailable(Collection<SkillDTO> skills) {
+        try {
+            skillStatsService.fillStats(skills);
+        } catch (ExternalServiceException e) {
+            // skills that had stored stats keep them
+        }
+    }
+
     public CandidateDTO createCandidate(CandidateDTO candidateDTO) {
         Candidate candidate = DTOMapper.toCandidateEntity(candidateDTO);
-        candidate = candidateDAO.create(candidate);
-        return DTOMapper.toCandidateDTO(candidate);
+        Candidate created = candidateDAO.create(candidate);
+        UnitOfWork.afterCommit(() -> trackCandidate(created));
+        return DTOMapper.toCandidateDTO(created);
     }
 
-    public CandidateDTO updateCandidate(CandidateDTO candidateDTO) {
+    /**
+     * Writes the non-null fields of the DTO. expectedVersion (from If-Match) wins over the version in the body;
+     * without either the update is unconditional.
+     */
+    public CandidateDTO updateCandidate(CandidateDTO candidateDTO, Long expectedVersion) {
         Candidate candidate = DTOMapper.toCandidateEntity(candidateDTO);
-        candidate = candidateDAO.update(candidate);
-        return DTOMapper.toCandidateDTO(candidate);
+        candidateDAO.updateIfVersion(candidate, expectedVersion != null ? expectedVersion : candidateDTO.getVersion());
+        CandidateDTO updated = candidateDAO.getDTOById(candidate.getId());
+        UnitOfWork.afterCommit(() -> trackCandidate(updated));
+        return updated;
     }
 
     public boolean deleteCandidate(Integer id) {
-        return candidateDAO.delete(id);
+        boolean deleted = candidateDAO.delete(id);
+        if (deleted) {
+            UnitOfWork.afterCommit(() -> leaderboard.removeCandidate(id));
+        }
+        return deleted;
     }
 
+    // Idempotent: linking an already linked skill succeeds without changing anything
     public boolean linkSkillToCandidate(Integer candidateId, Integer skillId) {
-        Candidate candidate = candidateDAO.getById(candidateId);
-        Skill skill = skillDAO.getById(skillId);
+        updateSkillLinks(candidateId, Set.of(skillId), Set.of());
+        return true;
+    }
 
-        if (candidate == null || skill == null) {
-            return false;
+    /** Links and unlinks skills of a candidate in one transaction. Unknown candidate or skill ids fail the whole call. */
+    public Map<String, Object> updateSkillLinks(Integer candidateId, Set<Integer> link, Set<Integer> unlink) {
+        CandidateDAO.SkillLinkChange change = candidateDAO.updateSkillLinks(candidateId, link, unlink);
+        if (change.linked() > 0 || change.unlinked() > 0) {
+            // the leaderboard only follows committed links
+            UnitOfWork.afterCommit(() -> trackCandidate(candidateDAO.getDTOById(candidateId)));
         }
 
-        Set<Skill> skills = candidate.getSkills();
-        skills.add(skill);
-        candidate.setSkills(skills);
-        candidateDAO.update(candidate);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("candidateId", candidateId);
+        result.put("linked", change.linked());
+        result.put("unlinked", change.unlinked());
+        return result;
+    }
 
-        return true;
+    /**
+     * The k candidates with the highest average popularity over their skills. With categories, only
+     * candidates with a skill in one of them are ranked, scored on those skills only.
+     * Candidates without any stats are left out instead of counting as 0.
+     * Without categories the answer comes from the in-memory leaderboard and never touches the database
+     * or the provider - until the leaderboard has been built the answer is an empty "building" result
+     * (answered with 503 and Retry-After), afterwards an empty "ready" result if nothing is ranked.
+     */
+    public Map<String, Object> getTopCandidatesByPopularity(int k, Set<Category> categories) {
+        if (!categories.isEmpty()) {
+            return computeTopCandidates(k, categories);
+        }
+
+        long started = System.nanoTime();
+        List<PopularityScoreDTO> top = leaderboard.top(k);
+        long readDone = System.nanoTime();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (top.isEmpty()) {
+            // built at start up, by /metrics/leaderboard/verify and after imports - not on the request path
+            result.put("message", leaderboard.isBuilt()
+                    ? "No candidates with skill popularity data"
+                    : "Leaderboard is being built - try again shortly");
+            result.put("status", leaderboard.isBuilt() ? "ready" : "building");
+            result.put("top", top);
+            result.put("rankedCandidates", 0);
+            result.put("source", "leaderboard");
+            return result;
+        }
+
+        result.put("candidateId", top.get(0).getCandidateId());
+        result.put("averagePopularityScore", top.get(0).getAveragePopularityScore());
+        result.put("top", top);
+        result.put("rankedCandidates", leaderboard.rankedCount());
+        result.put("source", "leaderboard");
+        result.put("timings", Map.of("leaderboardMs", (readDone - started) / 1_000_000));
+        return result;
     }
 
-    public Map<String, Object> getTopCandidateByPopularity() {
-        try {
-            List<Candidate> candidates = candidateDAO.getAll();
+    // Full recompute: load candidates, look up stats and score them all
+    private Map<String, Object> computeTopCandidates(int k, Set<Category> categories) {
+        long started = System.nanoTime();
+        List<CandidateDTO> candidates = candidateDAO.getCandidatesByCategories(categories, false);
+        long dbDone = System.nanoTime();
+
+        // Hvis ingen kandidater findes, returner et besked
+        if (candidates.isEmpty()) {
+            return Map.of("message", "No candidates found");
+        }
 
-            // Hvis ingen kandidater findes, returner et besked
-            if (candidates.isEmpty()) {
-                return Map.of("message", "No candidates found");
+        // Saml alle unikke skills, så hver skill kun slås op én gang uanset antal kandidater
+        Map<Integer, SkillDTO> skills = new HashMap<>();
+        for (CandidateDTO candidate : candidates) {
+            for (SkillDTO skill : candidate.getSkills()) {
+                if (categories.isEmpty() || categories.contains(skill.getCategory())) {
+                    skills.putIfAbsent(skill.getId(), skill);
+                }
             }
+        }
 
-            // Mapper kandidater til DTO'er for videre behandling
-            List<CandidateDTO> candidateDTOs = candidates.stream()
-                    .map(DTOMapper::toCandidateDTO)
-                    .collect(Collectors.toList());
+        if (skills.isEmpty()) {
+            return Map.of("message", "No candidates with skill popularity data");
+        }
 
-            double highestAvg = 0.0;
-            Integer topCandidateId = null;
+        skillStatsService.fillStats(skills.values());
+        Map<Integer, Integer> popularity = popularityOf(skills.values());
+        long upstreamDone = System.nanoTime();
 
-            // Beregning af gennemsnitlig popularitet for hver kandidat
-            for (CandidateDTO candidateDTO : candidateDTOs) {
-                if (candidateDTO.getSkills() == null || candidateDTO.getSkills().isEmpty()) {
-                    continue;
-                }
+        // Scoring kører parallelt over de allerede hentede stats; kun de k bedste holdes i en heap
+        Comparator<PopularityScoreDTO> byScore = Comparator
+                .comparingDouble(PopularityScoreDTO::getAveragePopularityScore)
+                .thenComparing(PopularityScoreDTO::getCandidateId, Comparator.reverseOrder());
+        List<PopularityScoreDTO> top = candidates.parallelStream()
+                .map(candidate -> score(candidate, categories, popularity))
+                .filter(Objects::nonNull)
+                .collect(TopK.collector(k, byScore));
+        long scoringDone = System.nanoTime();
 
-                // Få slug for skills og hent statistikker for dem
-                List<String> slugs = candidateDTO.getSkills().stream()
-                        .map(SkillDTO::getSlug)
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-
-                if (slugs.isEmpty()) continue;
-
-                // Hent skill stats og beregn gennemsnitlig popularitet
-                List<SkillStatsDTO> skillStats = apiService.fetchSkillStats(slugs);
-                double avgPopularity = skillStats.stream()
-                        .mapToInt(SkillStatsDTO::getPopularityScore)
-                        .average()
-                        .orElse(0.0);
-
-                // Opdater den kandidat med den højeste gennemsnitlige popularitet
-                if (avgPopularity > highestAvg) {
-                    highestAvg = avgPopularity;
-                    topCandidateId = candidateDTO.getId();
-                }
+        // Hvis ingen kandidat har en beregnet popularitet
+        if (top.isEmpty()) {
+            return Map.of("message", "No candidates with skill popularity data");
+        }
+
+        Map<String, Object> timings = new LinkedHashMap<>();
+        timings.put("dbMs", (dbDone - started) / 1_000_000);
+        timings.put("upstreamMs", (upstreamDone - dbDone) / 1_000_000);
+        timings.put("scoringMs", (scoringDone - upstreamDone) / 1_000_000);
+
+        // candidateId/averagePopularityScore er fortsat topkandidaten, så eksisterende klienter virker
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("candidateId", top.get(0).getCandidateId());
+        result.put("averagePopularityScore", top.get(0).getAveragePopularityScore());
+        result.put("top", top);
+        result.put("rankedCandidates", candidates.size());
+        result.put("source", "recompute");
+        result.put("timings", timings);
+        return result;
+    }
+
+    // Loads every candidate and its skill stats and replaces the leaderboard
+    public void rebuildLeaderboard() {
+        LeaderboardSource source = loadLeaderboardSource();
+        leaderboard.rebuild(source.names(), source.skillsByCandidate(), source.popularity());
+    }
+
+    /** Compares the leaderboard with a full recompute and rebuilds it if they differ. */
+    public Map<String, Object> verifyLeaderboard() {
+        LeaderboardSource source = loadLeaderboardSource();
+        Map<String, Object> result = new LinkedHashMap<>(leaderboard.verify(source.skillsByCandidate(), source.popularity()));
+        boolean consistent = (Boolean) result.get("consistent");
+        if (!consistent) {
+            leaderboard.rebuild(source.names(), source.skillsByCandidate(), source.popularity());
+        }
+        result.put("rebuilt", !consistent);
+        return result;
+    }
+
+    private record LeaderboardSource(Map<Integer, String> names, Map<Integer, Set<Integer>> skillsByCandidate,
+                                     Map<Integer, Integer> popularity) {
+    }
+
+    // Streams the candidate projection, so the stored stats come along in the same query
+    private LeaderboardSource loadLeaderboardSource() {
+        Map<Integer, String> names = new HashMap<>();
+        Map<Integer, Set<Integer>> skillsByCandidate = new HashMap<>();
+        Map<Integer, SkillDTO> skills = new HashMap<>();
+        candidateDAO.streamAll(candidate -> {
+            names.put(candidate.getId(), candidate.getName());
+            Set<Integer> skillIds = new HashSet<>();
+            for (SkillDTO skill : candidate.getSkills()) {
+                skillIds.add(skill.getId());
+                skills.putIfAbsent(skill.getId(), skill);
             }
+            skillsByCandidate.put(candidate.getId(), skillIds);
+        });
+        fillStatsIfAvailable(skills.values());
+        return new LeaderboardSource(names, skillsByCandidate, popularityOf(skills.values()));
+    }
 
-            // Hvis ingen kandidat har en beregnet popularitet
-            if (topCandidateId == null) {
-                return Map.of("message", "No candidates with skill popularity data");
+    // Keeps the leaderboard in step after the candidate's skills changed
+    private void trackCandidate(Candidate candidate) {
+        trackCandidates(List.of(candidate));
+    }
+
+    private void trackCandidate(CandidateDTO candidate) {
+        if (!candidate.getSkills().isEmpty()) {
+            fillStatsIfAvailable(candidate.getSkills());
+            leaderboard.updatePopularity(popularityOf(candidate.getSkills()));
+        }
+        leaderboard.upsertCandidate(candidate.getId(), candidate.getName(),
+                candidate.getSkills().stream().map(SkillDTO::getId).toList());
+    }
+
+    /** Updates the leaderboard for candidates written outside this service (e.g. bulk import). */
+    public void trackCandidates(Collection<Candidate> candidates) {
+        Map<Integer, SkillDTO> skills = new HashMap<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.getSkills() == null) continue;
+            candidate.getSkills().forEach(skill -> skills.computeIfAbsent(skill.getId(), id -> DTOMapper.toSkillDTO(skill)));
+        }
+        if (!skills.isEmpty()) {
+            // one stats lookup for all skills involved
+            fillStatsIfAvailable(skills.values());
+            leaderboard.updatePopularity(popularityOf(skills.values()));
+        }
+        for (Candidate candidate : candidates) {
+            Set<Skill> candidateSkills = candidate.getSkills() == null ? Set.of() : candidate.getSkills();
+            leaderboard.upsertCandidate(candidate.getId(), candidate.getName(),
+                    candidateSkills.stream().map(Skill::getId).toList());
+        }
+    }
+
+    // skill id -> popularity, for the skills that have stats
+    private static Map<Integer, Integer> popularityOf(Collection<SkillDTO> skills) {
+        Map<Integer, Integer> popularity = new HashMap<>();
+        for (SkillDTO skill : skills) {
+            if (skill.getPopularityScore() != null) {
+                popularity.put(skill.getId(), skill.getPopularityScore());
             }
+        }
+        return popularity;
+    }
 
-            // Returnér ID for topkandidaten og gennemsnitlig popularitet
-            return Map.of(
-                    "candidateId", topCandidateId,
-                    "averagePopularityScore", highestAvg
-            );
-        } catch (Exception e) {
-            // Håndter eventuelle fejl
-            return Map.of("message", "Internal error occurred: " + e.getMessage());
+    // null when none of the candidate's (selected) skills have stats
+    private static PopularityScoreDTO score(CandidateDTO candidate, Set<Category> categories, Map<Integer, Integer> popularity) {
+        int sum = 0;
+        int count = 0;
+        for (SkillDTO skill : candidate.getSkills()) {
+            if (!categories.isEmpty() && !categories.contains(skill.getCategory())) {
+                continue;
+            }
+            Integer score = popularity.get(skill.getId());
+            if (score != null) {
+                sum += score;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
         }
+        return new PopularityScoreDTO(candidate.getId(), candidate.getName(), (double) sum / count, count);
     }
 
 }
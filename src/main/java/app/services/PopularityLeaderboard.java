@@ -0,0 +1,219 @@
+package app.services;
+
+import app.DTO.PopularityScoreDTO;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory ranking of candidates by average skill popularity.
+ * Writes (a candidate's skills changed, a skill's popularity changed) only rescore the candidates
+ * involved, found through a skill id -> candidates index. Reads walk the head of a skip list, so a
+ * top-k read is O(log n + k) and touches neither the database nor the Skill Stats API.
+ * Writes are serialized on this object; reads are lock free. A rebuild fills a new skip list and
+ * index and publishes them at once, so readers see either the old or the new ranking, never a half built one.
+ */
+public class PopularityLeaderboard {
+
+    private record Ranked(int candidateId, String name, double score, int scoredSkills) {
+    }
+
+    private record Member(String name, Set<Integer> skillIds, Ranked ranked) {
+    }
+
+    // highest score first, lowest id first on ties
+    private static final Comparator<Ranked> ORDER = Comparator
+            .comparingDouble(Ranked::score).reversed()
+            .thenComparingInt(Ranked::candidateId);
+
+    private volatile ConcurrentSkipListSet<Ranked> ranking = new ConcurrentSkipListSet<>(ORDER);
+    // guarded by this - replaced together with the ranking on rebuild
+    private Map<Integer, Member> members = new HashMap<>();
+    private Map<Integer, Set<Integer>> candidatesBySkill = new HashMap<>();
+    private Map<Integer, Integer> popularityBySkill = new HashMap<>();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private volatile Instant lastRebuild;
+
+    /** Adds the candidate or replaces its skills. Skills without known popularity do not count yet. */
+    public synchronized void upsertCandidate(int candidateId, String name, Collection<Integer> skillIds) {
+        removeMember(candidateId);
+        Set<Integer> ownSkills = new HashSet<>(skillIds);
+        for (Integer skillId : ownSkills) {
+            candidatesBySkill.computeIfAbsent(skillId, id -> new HashSet<>()).add(candidateId);
+        }
+        Ranked ranked = score(candidateId, name, ownSkills);
+        members.put(candidateId, new Member(name, ownSkills, ranked));
+        if (ranked != null) {
+            ranking.add(ranked);
+        }
+        updates.incrementAndGet();
+    }
+
+    public synchronized void removeCandidate(int candidateId) {
+        if (removeMember(candidateId)) {
+            updates.incrementAndGet();
+        }
+    }
+
+    /** New popularity per skill id - only candidates that have one of the changed skills are rescored. */
+    public synchronized void updatePopularity(Map<Integer, Integer> popularity) {
+        Set<Integer> affected = new HashSet<>();
+        popularity.forEach((skillId, score) -> {
+            Integer previous = popularityBySkill.put(skillId, score);
+            if (!score.equals(previous)) {
+                affected.addAll(candidatesBySkill.getOrDefault(skillId, Set.of()));
+            }
+        });
+        for (Integer candidateId : affected) {
+            Member member = members.get(candidateId);
+            if (member.ranked() != null) {
+                ranking.remove(member.ranked());
+            }
+            Ranked ranked = score(candidateId, member.name(), member.skillIds());
+            members.put(candidateId, new Member(member.name(), member.skillIds(), ranked));
+            if (ranked != null) {
+                ranking.add(ranked);
+            }
+        }
+        if (!affected.isEmpty()) {
+            updates.incrementAndGet();
+        }
+    }
+
+    /** Replaces everything with the given candidates (id -> name/skill ids) and popularity per skill id. */
+    public synchronized void rebuild(Map<Integer, String> names, Map<Integer, Set<Integer>> skillsByCandidate,
+                                     Map<Integer, Integer> popularity) {
+        ConcurrentSkipListSet<Ranked> newRanking = new ConcurrentSkipListSet<>(ORDER);
+        Map<Integer, Member> newMembers = new HashMap<>();
+        Map<Integer, Set<Integer>> newIndex = new HashMap<>();
+        Map<Integer, Integer> newPopularity = new HashMap<>(popularity);
+        skillsByCandidate.forEach((candidateId, skillIds) -> {
+            Set<Integer> ownSkills = new HashSet<>(skillIds);
+            for (Integer skillId : ownSkills) {
+                newIndex.computeIfAbsent(skillId, id -> new HashSet<>()).add(candidateId);
+            }
+            String name = names.get(candidateId);
+            Ranked ranked = score(candidateId, name, ownSkills, newPopularity);
+            newMembers.put(candidateId, new Member(name, ownSkills, ranked));
+            if (ranked != null) {
+                newRanking.add(ranked);
+            }
+        });
+        members = newMembers;
+        candidatesBySkill = newIndex;
+        popularityBySkill = newPopularity;
+        // one volatile write - top() never sees an empty or partly filled list while this runs
+        ranking = newRanking;
+        rebuilds.incrementAndGet();
+        lastRebuild = Instant.now();
+    }
+
+    // Largest first
+    public List<PopularityScoreDTO> top(int k) {
+        List<PopularityScoreDTO> top = new ArrayList<>(Math.min(k, 64));
+        for (Ranked ranked : ranking) {
+            if (top.size() == k) break;
+            top.add(new PopularityScoreDTO(ranked.candidateId(), ranked.name(), ranked.score(), ranked.scoredSkills()));
+        }
+        return top;
+    }
+
+    public int rankedCount() {
+        return ranking.size();
+    }
+
+    /** false until the first {@link #rebuild} - before that the ranking only holds candidates changed since start up. */
+    public boolean isBuilt() {
+        return lastRebuild != null;
+    }
+
+    /**
+     * Compares the ranking with a full recompute from the given data.
+     * @return the differences found - empty lists mean the leaderboard is consistent
+     */
+    public synchronized Map<String, Object> verify(Map<Integer, Set<Integer>> skillsByCandidate, Map<Integer, Integer> popularity) {
+        List<Integer> missing = new ArrayList<>();
+        List<Integer> unexpected = new ArrayList<>();
+        List<Integer> scoreMismatches = new ArrayList<>();
+
+        Map<Integer, Ranked> expected = new HashMap<>();
+        skillsByCandidate.forEach((candidateId, skillIds) -> {
+            Ranked ranked = score(candidateId, null, skillIds, popularity);
+            if (ranked != null) expected.put(candidateId, ranked);
+        });
+        Map<Integer, Ranked> actual = new HashMap<>();
+        ranking.forEach(ranked -> actual.put(ranked.candidateId(), ranked));
+
+        expected.forEach((candidateId, ranked) -> {
+            Ranked current = actual.get(candidateId);
+            if (current == null) {
+                missing.add(candidateId);
+            } else if (Math.abs(current.score() - ranked.score()) > 1e-9 || current.scoredSkills() != ranked.scoredSkills()) {
+                scoreMismatches.add(candidateId);
+            }
+        });
+        actual.keySet().stream().filter(id -> !expected.containsKey(id)).forEach(unexpected::add);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("consistent", missing.isEmpty() && unexpected.isEmpty() && scoreMismatches.isEmpty());
+        result.put("expectedRanked", expected.size());
+        result.put("actualRanked", actual.size());
+        result.put("missing", missing);
+        result.put("unexpected", unexpected);
+        result.put("scoreMismatches", scoreMismatches);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("candidates", members.size());
+            stats.put("knownSkills", popularityBySkill.size());
+        }
+        stats.put("ranked", ranking.size());
+        stats.put("updates", updates.get());
+        stats.put("rebuilds", rebuilds.get());
+        stats.put("lastRebuild", lastRebuild == null ? null : lastRebuild.toString());
+        return stats;
+    }
+
+    private boolean removeMember(int candidateId) {
+        Member member = members.remove(candidateId);
+        if (member == null) {
+            return false;
+        }
+        if (member.ranked() != null) {
+            ranking.remove(member.ranked());
+        }
+        for (Integer skillId : member.skillIds()) {
+            Set<Integer> ids = candidatesBySkill.get(skillId);
+            if (ids != null) {
+                ids.remove(candidateId);
+                if (ids.isEmpty()) candidatesBySkill.remove(skillId);
+            }
+        }
+        return true;
+    }
+
+    private Ranked score(int candidateId, String name, Set<Integer> skillIds) {
+        return score(candidateId, name, skillIds, popularityBySkill);
+    }
+
+    // null when none of the skills has a known popularity
+    private static Ranked score(int candidateId, String name, Set<Integer> skillIds, Map<Integer, Integer> popularity) {
+        int sum = 0;
+        int count = 0;
+        for (Integer skillId : skillIds) {
+            Integer score = popularity.get(skillId);
+            if (score != null) {
+                sum += score;
+                count++;
+            }
+        }
+        return count == 0 ? null : new Ranked(candidateId, name, (double) sum / count, count);
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 public class SecurityService {
+    private static final String DEFAULT_ROLE = "USER";
     private final ISecurityDAO securityDAO;
 
     public SecurityService(ISecurityDAO securityDAO) {
@@ -29,11 +30,13 @@ public class SecurityService {
 
 
     public UserDTO register(String username, String password) {
-        User created = securityDAO.createUser(username, password);
-        try { securityDAO.createRole("USER"); } catch (Exception ignored) {}
-        User updated = securityDAO.addUserRole(created.getUsername(), "USER");
+        if (username == null || username.isBlank() || password == null || password.isEmpty()) {
+            throw new app.exceptions.ValidationException("Username and password are required");
+        }
+        // user, role and link in one transaction - the USER role comes from the role cache
+        User created = securityDAO.registerUser(username, password, DEFAULT_ROLE);
 
-        Set<String> roles = updated.getRoles().stream()
+        Set<String> roles = created.getRoles().stream()
                 .map(r -> r.getRolename())
                 .collect(Collectors.toSet());
 
@@ -41,7 +44,7 @@ public class SecurityService {
         if (roles.isEmpty()) {
             throw new app.exceptions.ValidationException("Registered user has no roles assigned");
         }
-        return new UserDTO(updated.getUsername(), roles);
+        return new UserDTO(created.getUsername(), roles);
     }
 
     public void assignRole(String username, String role) {
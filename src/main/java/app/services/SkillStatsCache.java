@@ -0,0 +1,228 @@
+package app.services;
+
+import app.DTO.SkillStatsDTO;
+import app.exceptions.ApiException;
+import app.exceptions.ExternalServiceException;
+import app.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded, per slug cache in front of {@link ApiService}.
+ * Entries live for a configurable TTL. Entries that are read during the last part of their
+ * lifetime (refresh-ahead window) are reloaded in the background, so hot slugs rarely expire
+ * on the request path. Slugs the provider does not know are cached as well, so they do not
+ * cause a network call on every request.
+ * When the provider fails, expired entries are served as a fallback, marked as stale.
+ */
+public class SkillStatsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkillStatsCache.class);
+
+    private final ApiService apiService;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+
+    // access ordered => iteration order is least recently used first
+    private final LinkedHashMap<String, Entry> entries;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refreshExecutor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicLong upstreamFailures = new AtomicLong();
+    private final AtomicLong staleServed = new AtomicLong();
+
+    private record Entry(SkillStatsDTO stats, long loadedAt) {
+    }
+
+    public SkillStatsCache(ApiService apiService) {
+        this(apiService,
+                (int) Utils.getConfigLong("SKILL_STATS_CACHE_MAX_SIZE", 10_000),
+                Utils.getConfigLong("SKILL_STATS_CACHE_TTL_SECONDS", 3600) * 1000,
+                Utils.getConfigLong("SKILL_STATS_CACHE_REFRESH_AHEAD_SECONDS", 300) * 1000);
+    }
+
+    public SkillStatsCache(ApiService apiService, int maxSize, long ttlMillis, long refreshAheadMillis) {
+        if (maxSize < 1 || ttlMillis < 1 || refreshAheadMillis < 0 || refreshAheadMillis >= ttlMillis) {
+            throw new IllegalArgumentException("Invalid skill stats cache settings");
+        }
+        this.apiService = apiService;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > SkillStatsCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "skill-stats-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stats for the given slugs. Only slugs that are not cached or whose entry has expired are
+     * fetched from the provider (in one batched call).
+     * @return stats keyed by slug - slugs the provider does not know are absent
+     */
+    public Map<String, SkillStatsDTO> getAll(Collection<String> slugs) {
+        long now = System.currentTimeMillis();
+        Map<String, SkillStatsDTO> result = new HashMap<>();
+        Set<String> toLoad = new LinkedHashSet<>();
+        Set<String> toRefresh = new LinkedHashSet<>();
+
+        synchronized (entries) {
+            for (String slug : slugs) {
+                if (slug == null || result.containsKey(slug) || toLoad.contains(slug)) continue;
+                Entry entry = entries.get(slug);
+                if (entry != null && now - entry.loadedAt() < ttlMillis) {
+                    hits.incrementAndGet();
+                    if (entry.stats() != null) {
+                        result.put(slug, entry.stats());
+                    }
+                    if (now - entry.loadedAt() >= ttlMillis - refreshAheadMillis) {
+                        toRefresh.add(slug);
+                    }
+                } else {
+                    misses.incrementAndGet();
+                    toLoad.add(slug);
+                }
+            }
+        }
+
+        if (!toLoad.isEmpty()) {
+            try {
+                Map<String, SkillStatsDTO> loaded = apiService.fetchSkillStatsBatched(toLoad);
+                store(toLoad, loaded, now);
+                result.putAll(loaded);
+            } catch (ApiException e) {
+                upstreamFailures.incrementAndGet();
+                int served = serveStale(toLoad, result);
+                logger.warn("Skill stats provider failed ({}), served {} of {} slugs from stale entries",
+                        e.getMessage(), served, toLoad.size());
+                if (result.isEmpty()) {
+                    throw new ExternalServiceException("Skill stats are unavailable: " + e.getMessage(), e);
+                }
+            }
+        }
+        if (!toRefresh.isEmpty()) {
+            refreshAsync(toRefresh);
+        }
+        return result;
+    }
+
+    public void invalidate(String slug) {
+        synchronized (entries) {
+            entries.remove(slug);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size);
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlMillis / 1000);
+        stats.put("refreshAheadSeconds", refreshAheadMillis / 1000);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("evictions", evictions.get());
+        stats.put("refreshes", refreshes.get());
+        stats.put("refreshFailures", refreshFailures.get());
+        stats.put("upstreamFailures", upstreamFailures.get());
+        stats.put("staleServed", staleServed.get());
+        return stats;
+    }
+
+    private void refreshAsync(Set<String> slugs) {
+        // only one background reload per slug at a time
+        Set<String> claimed = new LinkedHashSet<>();
+        for (String slug : slugs) {
+            if (refreshing.add(slug)) claimed.add(slug);
+        }
+        if (claimed.isEmpty()) return;
+
+        refreshExecutor.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+                store(claimed, apiService.fetchSkillStatsBatched(claimed), now);
+                refreshes.incrementAndGet();
+            } catch (RuntimeException e) {
+                // the current entries stay valid until they expire
+                refreshFailures.incrementAndGet();
+                logger.warn("Refresh-ahead of skill stats failed: {}", e.getMessage());
+            } finally {
+                refreshing.removeAll(claimed);
+            }
+        });
+    }
+
+    // Fallback while the provider is failing: expired entries are kept until evicted and served marked as stale
+    private int serveStale(Set<String> slugs, Map<String, SkillStatsDTO> result) {
+        int served = 0;
+        synchronized (entries) {
+            for (String slug : slugs) {
+                Entry entry = entries.get(slug);
+                if (entry != null && entry.stats() != null) {
+                    result.put(slug, staleCopy(entry.stats()));
+                    served++;
+                }
+            }
+        }
+        staleServed.addAndGet(served);
+        return served;
+    }
+
+    private static SkillStatsDTO staleCopy(SkillStatsDTO stats) {
+        SkillStatsDTO copy = new SkillStatsDTO();
+        copy.setId(stats.getId());
+        copy.setSlug(stats.getSlug());
+        copy.setName(stats.getName());
+        copy.setCategoryKey(stats.getCategoryKey());
+        copy.setDescription(stats.getDescription());
+        copy.setPopularityScore(stats.getPopularityScore());
+        copy.setAverageSalary(stats.getAverageSalary());
+        copy.setUpdatedAt(stats.getUpdatedAt());
+        copy.setStale(true);
+        return copy;
+    }
+
+    private void store(Set<String> requested, Map<String, SkillStatsDTO> loaded, long loadedAt) {
+        synchronized (entries) {
+            for (String slug : requested) {
+                entries.put(slug, new Entry(loaded.get(slug), loadedAt));
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package app.services;
+
+import app.DAO.SkillDAO;
+import app.DAO.SkillStatsDAO;
+import app.DTO.SkillDTO;
+import app.DTO.SkillStatsDTO;
+import app.entities.SkillStats;
+import app.exceptions.DatabaseException;
+import app.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Market data for skills, served from the local skill_stats table.
+ * A scheduled job refreshes the table from the Skill Stats API in fixed size batches, so the
+ * provider sees a steady load that does not follow our own traffic. Skills that have no row yet
+ * (e.g. just created) are looked up once through {@link SkillStatsCache} and written through.
+ */
+public class SkillStatsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkillStatsService.class);
+
+    private final SkillStatsDAO skillStatsDAO;
+    private final SkillDAO skillDAO;
+    private final ApiService apiService;
+    private final SkillStatsCache skillStatsCache;
+    private final PopularityLeaderboard leaderboard;
+
+    private final long refreshIntervalMinutes = Utils.getConfigLong("SKILL_STATS_REFRESH_MINUTES", 60);
+    private final long initialDelaySeconds = Utils.getConfigLong("SKILL_STATS_REFRESH_INITIAL_DELAY_SECONDS", 10);
+    private final int refreshBatchSize = (int) Utils.getConfigLong("SKILL_STATS_REFRESH_BATCH_SIZE", 200);
+    // rows not refreshed for this long (the job kept failing) are reported as stale
+    private final Duration staleAfter = Duration.ofMinutes(refreshIntervalMinutes * 3);
+
+    private ScheduledExecutorService scheduler;
+    private final AtomicLong refreshRuns = new AtomicLong();
+    private final AtomicLong refreshedSkills = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicReference<Instant> lastRefresh = new AtomicReference<>();
+
+    public SkillStatsService(SkillStatsDAO skillStatsDAO, SkillDAO skillDAO, ApiService apiService,
+                             SkillStatsCache skillStatsCache, PopularityLeaderboard leaderboard) {
+        this.skillStatsDAO = skillStatsDAO;
+        this.skillDAO = skillDAO;
+        this.apiService = apiService;
+        this.skillStatsCache = skillStatsCache;
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Fills in popularity, salary and the stale flag of the given skills. Skills that already carry
+     * stats (joined into the candidate projection) are only checked for staleness; the rest are read
+     * from skill_stats, and only skills without a row go to the provider (through the cache) and are then stored.
+     * @throws app.exceptions.ExternalServiceException if stats were missing, the provider failed and nothing could be served
+     */
+    public void fillStats(Collection<SkillDTO> skills) {
+        Map<Integer, List<SkillDTO>> unfilled = new HashMap<>();
+        for (SkillDTO skill : skills) {
+            if (skill.getId() != null && skill.getPopularityScore() == null) {
+                unfilled.computeIfAbsent(skill.getId(), id -> new ArrayList<>()).add(skill);
+            }
+        }
+        if (!unfilled.isEmpty()) {
+            skillStatsDAO.getBySkillIds(unfilled.keySet()).forEach((skillId, row) -> {
+                for (SkillDTO skill : unfilled.remove(skillId)) {
+                    skill.setPopularityScore(row.getPopularityScore());
+                    skill.setAverageSalary(row.getAverageSalary());
+                    skill.setStatsRefreshedAt(row.getRefreshedAt());
+                }
+            });
+        }
+        Instant staleBefore = Instant.now().minus(staleAfter);
+        for (SkillDTO skill : skills) {
+            if (skill.getStatsRefreshedAt() != null) {
+                skill.setStatsStale(skill.getStatsRefreshedAt().isBefore(staleBefore));
+            }
+        }
+
+        Map<String, Integer> missing = new HashMap<>();
+        unfilled.forEach((skillId, copies) -> {
+            String slug = copies.get(0).getSlug();
+            if (slug != null) missing.put(slug, skillId);
+        });
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<String, SkillStatsDTO> fetched = skillStatsCache.getAll(missing.keySet());
+        fetched.forEach((slug, stat) -> {
+            Integer skillId = missing.get(slug);
+            if (skillId == null) return;
+            for (SkillDTO skill : unfilled.get(skillId)) {
+                skill.setPopularityScore(stat.getPopularityScore());
+                skill.setAverageSalary(stat.getAverageSalary());
+                skill.setStatsStale(stat.isStale());
+            }
+        });
+        try {
+            store(missing, fetched);
+        } catch (DatabaseException e) {
+            // e.g. a concurrent request stored the same skill first - the stats are served anyway
+            logger.warn("Could not store fetched skill stats: {}", e.getMessage());
+        }
+    }
+
+    public void startScheduledRefresh() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "skill-stats-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshAllSafely, initialDelaySeconds, refreshIntervalMinutes * 60, TimeUnit.SECONDS);
+        logger.info("Skill stats refresh scheduled every {} minutes", refreshIntervalMinutes);
+    }
+
+    public void stopScheduledRefresh() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void refreshAllSafely() {
+        try {
+            refreshAll();
+        } catch (RuntimeException e) {
+            // never let an exception cancel the schedule
+            logger.error("Skill stats refresh failed", e);
+        }
+    }
+
+    // Pulls fresh stats for every known skill, one batch after the other
+    public void refreshAll() {
+        List<String> slugs = skillDAO.getAllSlugs();
+        int batches = 0;
+        for (int from = 0; from < slugs.size(); from += refreshBatchSize) {
+            List<String> batch = slugs.subList(from, Math.min(from + refreshBatchSize, slugs.size()));
+            batches++;
+            try {
+                Map<String, SkillStatsDTO> fetched = apiService.fetchSkillStatsBatched(batch);
+                // resolve the skills of the returned slugs in one query on the slug index
+                Map<String, Integer> skillIdBySlug = new HashMap<>();
+                skillDAO.getBySlugs(fetched.keySet()).forEach((slug, skill) -> skillIdBySlug.put(slug, skill.getId()));
+                refreshedSkills.addAndGet(store(skillIdBySlug, fetched));
+            } catch (RuntimeException e) {
+                // keep the old rows, the next run retries
+                failedBatches.incrementAndGet();
+                logger.warn("Skill stats refresh batch of {} skills failed: {}", batch.size(), e.getMessage());
+            }
+        }
+        refreshRuns.incrementAndGet();
+        lastRefresh.set(Instant.now());
+        logger.info("Skill stats refreshed for {} skills in {} batches", slugs.size(), batches);
+    }
+
+    public Map<String, Object> getRefreshStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("refreshIntervalMinutes", refreshIntervalMinutes);
+        stats.put("batchSize", refreshBatchSize);
+        stats.put("runs", refreshRuns.get());
+        stats.put("refreshedSkills", refreshedSkills.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("lastRefresh", lastRefresh.get() == null ? null : lastRefresh.get().toString());
+        return stats;
+    }
+
+    private int store(Map<String, Integer> skillIdBySlug, Map<String, SkillStatsDTO> fetched) {
+        Instant now = Instant.now();
+        List<SkillStats> rows = new ArrayList<>();
+        skillIdBySlug.forEach((slug, skillId) -> {
+            SkillStatsDTO dto = fetched.get(slug);
+            // stale fallback values are not written back as if they were fresh
+            if (dto != null && !dto.isStale()) {
+                rows.add(new SkillStats(skillId, dto.getPopularityScore(), dto.getAverageSalary(), dto.getUpdatedAt(), now));
+            }
+        });
+        skillStatsDAO.saveAll(rows);
+
+        // rescore the candidates that have one of these skills
+        Map<Integer, Integer> popularity = new HashMap<>();
+        rows.forEach(row -> popularity.put(row.getSkillId(), row.getPopularityScore()));
+        leaderboard.updatePopularity(popularity);
+        return rows.size();
+    }
+}
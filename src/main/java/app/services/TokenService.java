@@ -1,6 +1,9 @@
 package app.services;
 
+import app.config.TokenConfig;
 import app.exceptions.ApiException;
+import app.security.Principal;
+import app.security.RouteAccess;
 import app.security.SecurityController;
 import app.utils.Utils;
 import dk.bugelhartmann.TokenSecurity;
@@ -12,41 +15,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.ParseException;
-import java.util.Set;
+import java.util.Map;
 
 public class TokenService {
     TokenSecurity tokenSecurity = new TokenSecurity();
     private static final Logger logger = LoggerFactory.getLogger(TokenService.class);
+    private final VerifiedTokenCache verifiedTokens =
+            new VerifiedTokenCache((int) Utils.getConfigLong("TOKEN_CACHE_MAX_SIZE", 10_000));
 
     public String createToken(UserDTO user) {
         try {
-            String ISSUER;
-            String TOKEN_EXPIRE_TIME;
-            String SECRET_KEY;
-
-            if (System.getenv("DEPLOYED") != null) {
-                ISSUER = System.getenv("ISSUER");
-                TOKEN_EXPIRE_TIME = System.getenv("TOKEN_EXPIRE_TIME");
-                SECRET_KEY = System.getenv("EXAM_SECRET_KEY");
-            } else {
-                ISSUER = Utils.getPropertyValue("ISSUER", "config.properties");
-                TOKEN_EXPIRE_TIME = Utils.getPropertyValue("TOKEN_EXPIRE_TIME", "config.properties");
-                SECRET_KEY = Utils.getPropertyValue("SECRET_KEY", "config.properties");
-            }
-            return tokenSecurity.createToken(user, ISSUER, TOKEN_EXPIRE_TIME, SECRET_KEY);
+            TokenConfig config = TokenConfig.get();
+            return tokenSecurity.createToken(user, config.issuer(), config.expireTime(), config.secretKey());
         } catch (Exception e) {
             logger.error("Could not create token", e);
             throw new ApiException(500, "Could not create token");
         }
     }
 
-    public UserDTO verifyToken(String token) {
-        boolean IS_DEPLOYED = (System.getenv("DEPLOYED") != null);
-        String SECRET = IS_DEPLOYED ? System.getenv("EXAM_SECRET_KEY") : Utils.getPropertyValue("SECRET_KEY", "config.properties");
+    public Principal verifyToken(String token) {
+        // same token again: signature and expiry were already checked, the entry expires with the token
+        Principal cached = verifiedTokens.get(token);
+        if (cached != null) {
+            return cached;
+        }
 
         try {
-            if (tokenSecurity.tokenIsValid(token, SECRET) && tokenSecurity.tokenNotExpired(token)) {
-                return tokenSecurity.getUserWithRolesFromToken(token);
+            if (tokenSecurity.tokenIsValid(token, TokenConfig.get().secretKey()) && tokenSecurity.tokenNotExpired(token)) {
+                UserDTO user = tokenSecurity.getUserWithRolesFromToken(token);
+                Principal principal = new Principal(user.getUsername(), RouteAccess.maskOf(user.getRoles()));
+                verifiedTokens.put(token, principal);
+                return principal;
             } else {
                 throw new UnauthorizedResponse("Token is not valid");
             }
@@ -56,4 +55,8 @@ public class TokenService {
         }
     }
 
+    public Map<String, Object> getVerifiedTokenCacheStats() {
+        return verifiedTokens.getStats();
+    }
+
 }
@@ -0,0 +1,127 @@
+package app.services;
+
+import app.security.Principal;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of tokens whose signature has been verified, so repeat requests with the same
+ * token skip parsing and HMAC verification. Keyed by the SHA-256 of the token (the tokens themselves
+ * are not kept) and every entry expires with the token's own exp claim.
+ * Backed by Caffeine, so lookups from many request threads do not queue on one lock.
+ */
+public class VerifiedTokenCache {
+
+    private final int maxSize;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Cache<String, Entry> entries;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private record Entry(Principal principal, long expiresAt) {
+    }
+
+    public VerifiedTokenCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid token cache size");
+        }
+        this.maxSize = maxSize;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                // each entry lives until its token's exp, reads do not extend it
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, entry.expiresAt() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .evictionListener((String key, Entry entry, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expired.incrementAndGet();
+                    } else if (cause == RemovalCause.SIZE) {
+                        evictions.incrementAndGet();
+                    }
+                })
+                // maintenance on the calling thread instead of the common ForkJoinPool
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+    }
+
+    /** @return the principal of a verified, not yet expired token, or null when it has to be verified */
+    public Principal get(String token) {
+        Entry entry = entries.getIfPresent(hash(token));
+        return entry == null ? null : entry.principal();
+    }
+
+    /** Call only after the token's signature and expiry have been verified. Tokens without exp are not cached. */
+    public void put(String token, Principal principal) {
+        long expiresAt = expiresAt(token);
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        entries.put(hash(token), new Entry(principal, expiresAt));
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats cacheStats = entries.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.estimatedSize());
+        stats.put("maxSize", maxSize);
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRatio", cacheStats.hitRate());
+        stats.put("evictions", evictions.get());
+        stats.put("expired", expired.get());
+        return stats;
+    }
+
+    // exp claim (seconds since epoch) from the payload, 0 when it cannot be read
+    private long expiresAt(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return 0;
+        }
+        try {
+            JsonNode exp = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+            return exp == null || !exp.canConvertToLong() ? 0 : exp.asLong() * 1000;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package app.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on requests in progress (gradient limiter). Every {@code windowMillis} the shortest
+ * response time of the window is compared with the shortest one seen without load: while they are
+ * close the limit grows by about sqrt(limit), when responses slow down beyond {@code tolerance}
+ * the limit shrinks in proportion. Requests above the limit are turned away at once, so the server
+ * sheds load before Jetty's thread pool and queue fill up.
+ */
+public class ConcurrencyLimiter {
+
+    // the no-load response time is measured again now and then, so a permanent change is picked up
+    private static final int WINDOWS_PER_BASELINE = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long windowNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // guarded by this - only touched once per finished request
+    private double estimatedLimit;
+    private long windowStart = System.nanoTime();
+    private long windowMinRtt = Long.MAX_VALUE;
+    private int windowMaxInFlight;
+    private long noLoadRtt;
+    private int windows;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = windowMillis * 1_000_000;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.estimatedLimit = limit;
+    }
+
+    /** @return true if the request may proceed - it must then be finished with {@link #release(long)} */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /** @param rttNanos how long the admitted request took */
+    public void release(long rttNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        synchronized (this) {
+            windowMinRtt = Math.min(windowMinRtt, rttNanos);
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+            long now = System.nanoTime();
+            if (now - windowStart >= windowNanos) {
+                adjust();
+                windowStart = now;
+                windowMinRtt = Long.MAX_VALUE;
+                windowMaxInFlight = 0;
+            }
+        }
+    }
+
+    private void adjust() {
+        if (noLoadRtt == 0 || windows++ % WINDOWS_PER_BASELINE == 0) {
+            noLoadRtt = windowMinRtt;
+        } else {
+            noLoadRtt = Math.min(noLoadRtt, windowMinRtt);
+        }
+        // only a limit that was actually used says something about the capacity
+        if (windowMaxInFlight < estimatedLimit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRtt / (double) windowMinRtt));
+        double next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        // smoothed, so one slow window does not halve the limit
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, 0.8 * estimatedLimit + 0.2 * next));
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", limit);
+        stats.put("minLimit", minLimit);
+        stats.put("maxLimit", maxLimit);
+        stats.put("inFlight", inFlight.get());
+        stats.put("admitted", admitted.get());
+        stats.put("rejected", rejected.get());
+        synchronized (this) {
+            stats.put("noLoadRttMs", noLoadRtt / 1_000_000.0);
+        }
+        return stats;
+    }
+}
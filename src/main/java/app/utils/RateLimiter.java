@@ -0,0 +1,103 @@
+package app.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket per key, kept as one number: the GCRA "theoretical arrival time". A request is allowed
+ * while that time is at most {@code burst} emission intervals ahead of now, and moves it one interval on.
+ * Checking a key is a map lookup and a compare-and-set - no locks, no refill timer.
+ * Keys whose bucket is full again are dropped in one sweep once the map grows a quarter past {@code maxKeys}
+ * (at most one sweep per second). When every tracked key is still active, new keys share one overflow
+ * bucket instead of growing the map, so a flood of new clients cannot exhaust memory.
+ */
+public class RateLimiter {
+
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final String name;
+    private final int perMinute;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxKeys;
+    private final int sweepAbove;
+
+    private final ConcurrentHashMap<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    public RateLimiter(String name, int perMinute, int burst, int maxKeys) {
+        if (perMinute <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate limit " + name + " needs a positive rate and burst");
+        }
+        this.name = name;
+        this.perMinute = perMinute;
+        this.burst = burst;
+        this.intervalNanos = 60_000_000_000L / perMinute;
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.maxKeys = maxKeys;
+        this.sweepAbove = maxKeys + maxKeys / 4;
+    }
+
+    /** @return 0 when the request may proceed, otherwise the nanoseconds until the key has a token again */
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+        AtomicLong arrival = arrivals.get(key);
+        if (arrival == null) {
+            if (arrivals.size() >= sweepAbove) {
+                sweep(now);
+            }
+            if (arrivals.size() >= sweepAbove) {
+                overflowed.incrementAndGet();
+                arrival = overflow;
+            } else {
+                // a new key starts with a full bucket
+                arrival = arrivals.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+        }
+        while (true) {
+            long current = arrival.get();
+            long tat = Math.max(current, now);
+            long wait = tat - toleranceNanos - now;
+            if (wait > 0) {
+                rejected.incrementAndGet();
+                return wait;
+            }
+            if (arrival.compareAndSet(current, tat + intervalNanos)) {
+                allowed.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    // one thread at a time, at most once per interval - a full map of active keys does not sweep on every new key
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        arrivals.values().removeIf(arrival -> arrival.get() <= now);
+        sweeps.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("perMinute", perMinute);
+        stats.put("burst", burst);
+        stats.put("keys", arrivals.size());
+        stats.put("maxKeys", maxKeys);
+        stats.put("sweeps", sweeps.get());
+        stats.put("overflowed", overflowed.get());
+        stats.put("allowed", allowed.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
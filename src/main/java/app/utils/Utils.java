@@ -29,6 +29,45 @@ public class Utils {
         }
     }
 
+    /**
+     * Optional setting: environment variable when DEPLOYED, otherwise config.properties.
+     * A JVM system property with the same name (-DNAME=value) wins over both.
+     * Falls back to the default when the setting (or the file) is missing.
+     */
+    public static String getConfigValue(String name, String defaultValue) {
+        String override = System.getProperty(name);
+        if (override != null && !override.isBlank()) {
+            return override.trim();
+        }
+        if (System.getenv("DEPLOYED") != null) {
+            String value = System.getenv(name);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+        try (InputStream is = Utils.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (is == null) {
+                return defaultValue;
+            }
+            Properties prop = new Properties();
+            prop.load(is);
+            String value = prop.getProperty(name);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        } catch (IOException ex) {
+            return defaultValue;
+        }
+    }
+
+    public static long getConfigLong(String name, long defaultValue) {
+        String value = getConfigValue(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ApiException(500, String.format("Property %s must be a number but was '%s'", name, value));
+        }
+    }
+
     public ObjectMapper getObjectMapper() {
         ObjectMapper jsonMapper = new ObjectMapper();
         jsonMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false); // Ignore unknown properties in JSON
@@ -1,17 +1,44 @@
 package app.api;
 
+import app.DAO.CandidateDAO;
+import app.DAO.SkillDAO;
+import app.config.AdmissionControl;
 import app.config.ApplicationConfig;
 import app.config.HibernateConfig;
+import app.controllers.CandidateController;
 import app.populator.CandidatePopulator;
+import app.security.SecurityDAO;
 import app.services.ApiService;
+import app.services.CandidateService;
+import app.services.PopularityLeaderboard;
+import app.services.SkillStatsCache;
+import app.services.TokenService;
+import app.utils.CircuitBreaker;
+import app.utils.RateLimiter;
 import app.DTO.SkillStatsDTO;
+import app.entities.Skill;
+import app.enums.Category;
+import app.exceptions.ApiException;
+import app.exceptions.ExternalServiceException;
+import app.exceptions.OverloadException;
 import io.restassured.RestAssured;
 import io.javalin.Javalin;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import org.junit.jupiter.api.*;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -20,9 +47,12 @@ class CandidateApiTest {
 
     private static EntityManagerFactory emf;
     private static String token;
+    private static String adminToken;
 
     private Integer candidateId1;
     private Integer candidateId2;
+    private Integer skillJavaId;
+    private Integer skillSpringId;
 
     @BeforeAll
     static void setupAll() {
@@ -32,19 +62,23 @@ class CandidateApiTest {
         // Mock API service for the test to avoid real HTTP calls
         ApiService mockApiService = new ApiService() {
             @Override
-            public List<SkillStatsDTO> fetchSkillStats(List<String> slugs) {
-                return slugs.stream().map(slug -> {
+            public CompletableFuture<List<SkillStatsDTO>> fetchSkillStatsAsync(List<String> slugs) {
+                return CompletableFuture.completedFuture(slugs.stream().map(slug -> {
                     SkillStatsDTO dto = new SkillStatsDTO();
                     dto.setSlug(slug);
                     dto.setPopularityScore(80);
                     dto.setAverageSalary(100000);
                     return dto;
-                }).toList();
+                }).toList());
             }
         };
 
 
+        // the defaults plus a low limit on a route only the rate limit test calls
+        System.setProperty("RATE_LIMIT_ROUTES", "POST /auth/login=20,POST /auth/register=20,"
+                + "GET /candidate/reports/candidates/top-by-popularity=60,GET /metrics/virtual-threads=2");
         Javalin app = ApplicationConfig.startServer(7779, mockApiService);
+        System.clearProperty("RATE_LIMIT_ROUTES");
 
         RestAssured.baseURI = "http://localhost:7779/api/v1";
 
@@ -69,6 +103,8 @@ class CandidateApiTest {
         Map<String, Integer> ids = CandidatePopulator.seedData(emf);
         candidateId1 = ids.get("candidate1");
         candidateId2 = ids.get("candidate2");
+        skillJavaId = ids.get("skillJava");
+        skillSpringId = ids.get("skillSpring");
     }
 
     @Test
@@ -80,6 +116,32 @@ class CandidateApiTest {
                 .body("name", hasItems("Alice", "Bob"));
     }
 
+    @Test
+    void getAllCandidates_paginatesWithKeyset() {
+        String next = given()
+                .when().get("/candidate?limit=1")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(1))
+                .header("X-Next-After", notNullValue())
+                .extract().header("X-Next-After");
+
+        given()
+                .when().get("/candidate?limit=1&after=" + next)
+                .then()
+                .statusCode(200)
+                .body("[0].id", greaterThan(Integer.parseInt(next)));
+    }
+
+    @Test
+    void getAllCandidates_streamsAll() {
+        given()
+                .when().get("/candidate?stream=true")
+                .then()
+                .statusCode(200)
+                .body("name", hasItems("Alice", "Bob"));
+    }
+
     @Test
     void getCandidateById_includesEnrichment() {
         given()
@@ -92,6 +154,38 @@ class CandidateApiTest {
                 .body("skills[0].averageSalary", equalTo(100000));
     }
 
+    @Test
+    void getCandidateById_moreConcurrentRequestsThanPooledConnections() throws Exception {
+        // a skill without stats, so every request also runs the stats lookup and the write-through
+        Skill skill = new SkillDAO(emf).create(new Skill("Skill " + System.nanoTime(), "Concurrency test", Category.TESTING));
+        new CandidateDAO(emf).updateSkillLinks(candidateId1, Set.of(skill.getId()), Set.of());
+
+        // the test pool has 5 connections
+        int requests = 20;
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(RestAssured.baseURI + "/candidate/" + candidateId1))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                statuses.add(executor.submit(() -> {
+                    start.await();
+                    return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> status : statuses) {
+                Assertions.assertEquals(200, status.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     void getCandidatesByCategory_filtersCorrectly() {
         given()
@@ -101,8 +195,42 @@ class CandidateApiTest {
                 .body("findAll { it.skills.any { it.category == 'PROG_LANG' } }", not(empty()));
     }
 
+    @Test
+    void getCandidatesByCategory_matchAllRequiresEveryCategory() {
+        given()
+                .when().get("/candidate?category=PROG_LANG,FRAMEWORK&match=all")
+                .then()
+                .statusCode(200)
+                .body("name", hasItem("Alice"))
+                .body("name", not(hasItem("Bob")));
+    }
+
+    @Test
+    void getCandidatesByCategory_unknownCategory_returns400() {
+        given()
+                .when().get("/candidate?category=NOPE")
+                .then()
+                .statusCode(400)
+                .body("error", equalTo("VALIDATION_ERROR"));
+    }
+
+    // The leaderboard follows writes through the API - rows seeded straight into the database are not ranked
+    private static void importRankedCandidates() {
+        given()
+                .contentType("application/x-ndjson")
+                .body("""
+                        {"name":"Ida","skills":["java","spring-boot"]}
+                        {"name":"Jens","skills":["spring-boot"]}
+                        """)
+                .when().post("/candidate/bulk")
+                .then()
+                .statusCode(200)
+                .body("imported", equalTo(2));
+    }
+
     @Test
     void getTopCandidateByPopularity() {
+        importRankedCandidates();
         given()
                 .when().get("candidate/reports/candidates/top-by-popularity")
                 .then()
@@ -111,6 +239,149 @@ class CandidateApiTest {
                 .body("averagePopularityScore", greaterThan(0f));
     }
 
+    @Test
+    void getTopCandidatesByPopularity_returnsTopKForCategory() {
+        given()
+                .when().get("candidate/reports/candidates/top-by-popularity?k=2&category=FRAMEWORK")
+                .then()
+                .statusCode(200)
+                .body("top.size()", equalTo(2))
+                .body("top[0].averagePopularityScore", greaterThanOrEqualTo(80f))
+                .body("timings.dbMs", notNullValue())
+                .body("timings.upstreamMs", notNullValue())
+                .body("timings.scoringMs", notNullValue());
+    }
+
+    @Test
+    void getTopCandidatesByPopularity_servedFromLeaderboard() {
+        importRankedCandidates();
+        given()
+                .when().get("candidate/reports/candidates/top-by-popularity?k=2")
+                .then()
+                .statusCode(200)
+                .body("source", equalTo("leaderboard"))
+                .body("top.size()", equalTo(2))
+                .body("top[0].averagePopularityScore", greaterThanOrEqualTo(80f))
+                .body("timings.dbMs", nullValue())
+                .body("timings.leaderboardMs", notNullValue());
+    }
+
+    @Test
+    void getTopCandidatesByPopularity_buildingThenEmpty() {
+        // own controller over a leaderboard that is not built yet - the server's was built at start up
+        PopularityLeaderboard leaderboard = new PopularityLeaderboard();
+        CandidateController controller = new CandidateController(new CandidateService(null, null, null, leaderboard), null);
+        Javalin app = Javalin.create().get("/top", controller::getTopByPopularity).start(7781);
+        try {
+            given()
+                    .when().get("http://localhost:7781/top")
+                    .then()
+                    .statusCode(503)
+                    .header("Retry-After", "1")
+                    .body("status", equalTo("building"))
+                    .body("top.size()", equalTo(0));
+
+            leaderboard.rebuild(Map.of(), Map.of(), Map.of());
+            given()
+                    .when().get("http://localhost:7781/top")
+                    .then()
+                    .statusCode(200)
+                    .body("status", equalTo("ready"))
+                    .body("top.size()", equalTo(0))
+                    .body("rankedCandidates", equalTo(0));
+        } finally {
+            app.stop();
+        }
+    }
+
+    @Test
+    void leaderboard_rebuildNeverExposesPartialRanking() throws Exception {
+        PopularityLeaderboard leaderboard = new PopularityLeaderboard();
+        Map<Integer, String> names = new HashMap<>();
+        Map<Integer, Set<Integer>> skills = new HashMap<>();
+        for (int id = 1; id <= 2000; id++) {
+            names.put(id, "c" + id);
+            skills.put(id, Set.of(1));
+        }
+        leaderboard.rebuild(names, skills, Map.of(1, 50));
+
+        ExecutorService rebuilder = Executors.newSingleThreadExecutor();
+        Future<?> rebuilding = rebuilder.submit(() -> {
+            for (int i = 0; i < 50; i++) leaderboard.rebuild(names, skills, Map.of(1, 50 + i % 2));
+        });
+        try {
+            while (!rebuilding.isDone()) {
+                Assertions.assertEquals(10, leaderboard.top(10).size());
+                Assertions.assertEquals(2000, leaderboard.rankedCount());
+            }
+            rebuilding.get();
+        } finally {
+            rebuilder.shutdownNow();
+        }
+    }
+
+    @Test
+    void getTopCandidatesByPopularity_invalidK_returns400() {
+        given()
+                .when().get("candidate/reports/candidates/top-by-popularity?k=0")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    void bulkImport_ndjson_reportsRowErrors() {
+        String body = """
+                {"name":"Dora","phone":"33333333","educationBackground":"Data Science","skills":["java"]}
+                {"name":"Emil","phone":"44444444","educationBackground":"Design","skills":["Spring Boot"]}
+                {"name":"Finn","skills":["cobol"]}
+                {"phone":"55555555"}
+                not json
+                """;
+        given()
+                .contentType("application/x-ndjson")
+                .body(body)
+                .when().post("/candidate/bulk")
+                .then()
+                .statusCode(200)
+                .body("received", equalTo(5))
+                .body("imported", equalTo(2))
+                .body("failed", equalTo(3))
+                .body("errors.line", containsInAnyOrder(3, 4, 5));
+    }
+
+    @Test
+    void bulkImport_csv_importsRows() {
+        String body = """
+                name,phone,educationBackground,skills
+                Gustav,66666666,"Computer Science, DTU",java;spring-boot
+                Hanne,77777777,Economics,
+                """;
+        given()
+                .contentType("text/csv")
+                .body(body)
+                .when().post("/candidate/bulk")
+                .then()
+                .statusCode(200)
+                .body("imported", equalTo(2))
+                .body("failed", equalTo(0));
+
+        given()
+                .when().get("/candidate?category=FRAMEWORK")
+                .then()
+                .statusCode(200)
+                .body("findAll { it.name == 'Gustav' }.educationBackground", hasItem("Computer Science, DTU"));
+    }
+
+    @Test
+    void bulkImport_unsupportedContentType_returns400() {
+        given()
+                .contentType("application/json")
+                .body("[]")
+                .when().post("/candidate/bulk")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void create_update_deleteFlow() {
         String createJson = """
@@ -158,6 +429,46 @@ class CandidateApiTest {
                 .statusCode(204);
     }
 
+    @Test
+    void update_withStaleIfMatch_returns412() {
+        String etag = given()
+                .when().get("/candidate/" + candidateId1)
+                .then()
+                .statusCode(200)
+                .header("ETag", notNullValue())
+                .extract().header("ETag");
+
+        String newEtag = given()
+                .header("Authorization", "Bearer " + token)
+                .header("If-Match", etag)
+                .contentType("application/json")
+                .body("{\"phone\":\"99999999\"}")
+                .when().put("/candidate/" + candidateId1)
+                .then()
+                .statusCode(200)
+                .body("phone", equalTo("99999999"))
+                .body("name", equalTo("Alice"))
+                .header("ETag", not(equalTo(etag)))
+                .extract().header("ETag");
+
+        // the first ETag is stale now - the second writer loses instead of overwriting
+        given()
+                .header("Authorization", "Bearer " + token)
+                .header("If-Match", etag)
+                .contentType("application/json")
+                .body("{\"phone\":\"88888888\"}")
+                .when().put("/candidate/" + candidateId1)
+                .then()
+                .statusCode(412);
+
+        given()
+                .when().get("/candidate/" + candidateId1)
+                .then()
+                .statusCode(200)
+                .header("ETag", equalTo(newEtag))
+                .body("phone", equalTo("99999999"));
+    }
+
     @Test
     void linkSkillToCandidate_worksCorrectly() {
 
@@ -177,6 +488,51 @@ class CandidateApiTest {
                 .body("skills.id", hasItem(skillId));
     }
 
+    @Test
+    void updateSkillLinks_linksAndUnlinksInOneCall() {
+        String body = """
+            {"link":[%d],"unlink":[%d]}
+            """.formatted(skillJavaId, skillSpringId);
+
+        given()
+                .header("Authorization", "Bearer " + token)
+                .contentType("application/json")
+                .body(body)
+                .when().post("/candidate/" + candidateId2 + "/skills")
+                .then()
+                .statusCode(200)
+                .body("linked", equalTo(1))
+                .body("unlinked", equalTo(1));
+
+        given()
+                .when().get("/candidate/" + candidateId2)
+                .then()
+                .statusCode(200)
+                .body("skills.id", contains(skillJavaId));
+
+        // same request again changes nothing
+        given()
+                .header("Authorization", "Bearer " + token)
+                .contentType("application/json")
+                .body(body)
+                .when().post("/candidate/" + candidateId2 + "/skills")
+                .then()
+                .statusCode(200)
+                .body("linked", equalTo(0))
+                .body("unlinked", equalTo(0));
+    }
+
+    @Test
+    void updateSkillLinks_unknownSkill_returns404() {
+        given()
+                .header("Authorization", "Bearer " + token)
+                .contentType("application/json")
+                .body("{\"link\":[99999]}")
+                .when().post("/candidate/" + candidateId1 + "/skills")
+                .then()
+                .statusCode(404);
+    }
+
     @Test
     void getCandidateById_invalidId_returns404() {
         int invalidId = 9999;
@@ -188,4 +544,428 @@ class CandidateApiTest {
                 .body("error", equalTo("ENTITY_NOT_FOUND"))
                 .body("message", equalTo("Candidate with id=" + invalidId + " not found"));
     }
+
+    @Test
+    void admission_routeLimit_returns429WithRetryAfter() {
+        // 2 per minute, burst 1 - limited before the security filter, so the first call is a plain 401
+        given().when().get("/metrics/virtual-threads").then().statusCode(401);
+        int retryAfter = Integer.parseInt(given()
+                .when().get("/metrics/virtual-threads")
+                .then()
+                .statusCode(429)
+                .body("error", equalTo("RATE_LIMITED"))
+                .extract().header("Retry-After"));
+        Assertions.assertTrue(retryAfter >= 1 && retryAfter <= 30, "Retry-After " + retryAfter);
+
+        // other routes of the same client are on the role limit
+        given().when().get("/candidate/" + candidateId1).then().statusCode(200);
+    }
+
+    @Test
+    void admission_overConcurrencyLimit_returns503WithRetryAfter() throws Exception {
+        System.setProperty("ADMISSION_INITIAL_LIMIT", "1");
+        System.setProperty("ADMISSION_MIN_LIMIT", "1");
+        System.setProperty("ADMISSION_MAX_LIMIT", "1");
+        AdmissionControl admissionControl;
+        try {
+            admissionControl = new AdmissionControl(new TokenService());
+        } finally {
+            System.clearProperty("ADMISSION_INITIAL_LIMIT");
+            System.clearProperty("ADMISSION_MIN_LIMIT");
+            System.clearProperty("ADMISSION_MAX_LIMIT");
+        }
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Javalin app = Javalin.create()
+                .beforeMatched(admissionControl.admit())
+                .after(admissionControl.release())
+                .get("/slow", ctx -> {
+                    entered.countDown();
+                    finish.await(10, TimeUnit.SECONDS);
+                    ctx.result("done");
+                })
+                // as registered by ApplicationConfig
+                .exception(OverloadException.class, (e, ctx) -> {
+                    ctx.header("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+                    ctx.status(e.getCode()).json(Map.of("error", "OVERLOADED", "message", e.getMessage()));
+                })
+                .start(7782);
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            CompletableFuture<HttpResponse<String>> first = client.sendAsync(
+                    HttpRequest.newBuilder(URI.create("http://localhost:7782/slow")).build(), HttpResponse.BodyHandlers.ofString());
+            Assertions.assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            given().when().get("http://localhost:7782/slow")
+                    .then()
+                    .statusCode(503)
+                    .header("Retry-After", "1");
+
+            finish.countDown();
+            Assertions.assertEquals(200, first.get(10, TimeUnit.SECONDS).statusCode());
+            // the slot is free again
+            given().when().get("http://localhost:7782/slow").then().statusCode(200);
+        } finally {
+            finish.countDown();
+            app.stop();
+        }
+    }
+
+    @Test
+    void rateLimiter_fullMapSweepsThenSharesOverflowBucket() throws Exception {
+        // 1 per second, burst 1, sweep once 5 keys are tracked
+        RateLimiter limiter = new RateLimiter("test", 60, 1, 4);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(0, limiter.tryAcquire("client" + i));
+        }
+        Assertions.assertTrue(limiter.tryAcquire("client0") > 0);
+
+        // every key is still active - the sweep frees nothing, new keys share the overflow bucket
+        Assertions.assertEquals(0, limiter.tryAcquire("new1"));
+        Assertions.assertTrue(limiter.tryAcquire("new2") > 0);
+        Map<String, Object> stats = limiter.getStats();
+        Assertions.assertEquals(5, ((Number) stats.get("keys")).intValue());
+        Assertions.assertEquals(1, ((Number) stats.get("sweeps")).intValue());
+        Assertions.assertEquals(2, ((Number) stats.get("overflowed")).intValue());
+
+        // once the buckets are full again the next sweep (at most one per second) drops them
+        Thread.sleep(1100);
+        Assertions.assertEquals(0, limiter.tryAcquire("new3"));
+        stats = limiter.getStats();
+        Assertions.assertEquals(1, ((Number) stats.get("keys")).intValue());
+        Assertions.assertEquals(2, ((Number) stats.get("sweeps")).intValue());
+    }
+
+    // /sync is ADMIN only - registration always gives USER, so the admin is made through the DAO
+    private static String adminToken() {
+        if (adminToken == null) {
+            new SecurityDAO(emf).registerUser("admin1", "a1", "ADMIN");
+            adminToken = given().contentType("application/json")
+                    .body("{\"username\":\"admin1\",\"password\":\"a1\"}")
+                    .when().post("/auth/login")
+                    .then().statusCode(200)
+                    .extract().jsonPath().getString("token");
+        }
+        return adminToken;
+    }
+
+    private static long queryLong(String sql) {
+        try (EntityManager em = emf.createEntityManager()) {
+            return ((Number) em.createNativeQuery(sql).getSingleResult()).longValue();
+        }
+    }
+
+    private static List<String> sortedLines(String csv) {
+        return csv.lines().sorted().toList();
+    }
+
+    @Test
+    void sync_csvRoundTrip_isIdempotentAndMovesSequence() {
+        String admin = adminToken();
+        String candidates = given().header("Authorization", "Bearer " + admin)
+                .when().get("/sync/candidate?format=csv")
+                .then().statusCode(200).contentType(containsString("text/csv"))
+                .extract().asString();
+        String links = given().header("Authorization", "Bearer " + admin)
+                .when().get("/sync/candidate_skill?format=csv")
+                .then().statusCode(200)
+                .extract().asString();
+        long candidateCount = queryLong("SELECT COUNT(*) FROM candidate");
+        long linkCount = queryLong("SELECT COUNT(*) FROM candidate_skill");
+        // one header line
+        Assertions.assertEquals(candidateCount, candidates.lines().count() - 1);
+        Assertions.assertEquals(linkCount, links.lines().count() - 1);
+
+        // the same files twice: candidates are upserted, existing links are skipped
+        for (int i = 0; i < 2; i++) {
+            given().header("Authorization", "Bearer " + admin).contentType("text/csv").body(candidates)
+                    .when().post("/sync/candidate?format=csv")
+                    .then().statusCode(200)
+                    .body("rows", equalTo((int) candidateCount));
+            given().header("Authorization", "Bearer " + admin).contentType("text/csv").body(links)
+                    .when().post("/sync/candidate_skill?format=csv")
+                    .then().statusCode(200)
+                    .body("rows", equalTo(0));
+        }
+        Assertions.assertEquals(candidateCount, queryLong("SELECT COUNT(*) FROM candidate"));
+        Assertions.assertEquals(linkCount, queryLong("SELECT COUNT(*) FROM candidate_skill"));
+        String exportedAgain = given().header("Authorization", "Bearer " + admin)
+                .when().get("/sync/candidate?format=csv")
+                .then().statusCode(200)
+                .extract().asString();
+        Assertions.assertEquals(sortedLines(candidates), sortedLines(exportedAgain));
+
+        // the next id block starts after the highest imported id
+        Assertions.assertEquals(queryLong("SELECT MAX(candidate_id) FROM candidate") + 50,
+                queryLong("SELECT last_value FROM candidate_seq"));
+    }
+
+    @Test
+    void sync_importWithIdInReservedBlock_returns409() {
+        String admin = adminToken();
+        // moves candidate_seq to MAX(candidate_id) + 50, so the ids above the highest one are the block handed out last
+        String candidates = given().header("Authorization", "Bearer " + admin)
+                .when().get("/sync/candidate?format=csv")
+                .then().statusCode(200)
+                .extract().asString();
+        given().header("Authorization", "Bearer " + admin).contentType("text/csv").body(candidates)
+                .when().post("/sync/candidate?format=csv")
+                .then().statusCode(200);
+        long reservedId = queryLong("SELECT last_value FROM candidate_seq");
+        long count = queryLong("SELECT COUNT(*) FROM candidate");
+
+        given().header("Authorization", "Bearer " + admin).contentType("text/csv")
+                .body("candidate_id,name,phone,educationbackground,version\n" + reservedId + ",Karl,44444444,Physics,0\n")
+                .when().post("/sync/candidate?format=csv")
+                .then().statusCode(409);
+        Assertions.assertEquals(count, queryLong("SELECT COUNT(*) FROM candidate"));
+
+        given().header("Authorization", "Bearer " + token).contentType("text/csv").body(candidates)
+                .when().post("/sync/candidate?format=csv")
+                .then().statusCode(403);
+    }
+
+    @Test
+    void login_wrongPasswordOrUnknownUser_returns401() {
+        given().contentType("application/json")
+                .body("{\"username\":\"u1\",\"password\":\"wrong\"}")
+                .when().post("/auth/login")
+                .then()
+                .statusCode(401);
+
+        given().contentType("application/json")
+                .body("{\"username\":\"nobody\",\"password\":\"p1\"}")
+                .when().post("/auth/login")
+                .then()
+                .statusCode(401);
+    }
+
+    @Test
+    void register_takenUsername_returns409() {
+        given().contentType("application/json")
+                .body("{\"username\":\"u1\",\"password\":\"other\"}")
+                .when().post("/auth/register")
+                .then()
+                .statusCode(409);
+    }
+
+    // ApiService with a scripted upstream: fixed popularity, failing, or answers held until the gate opens
+    private static class ScriptedApiService extends ApiService {
+        final AtomicInteger upstreamCalls = new AtomicInteger();
+        volatile boolean failing;
+        volatile int popularity = 80;
+        volatile CompletableFuture<Void> gate = CompletableFuture.completedFuture(null);
+
+        @Override
+        public CompletableFuture<List<SkillStatsDTO>> fetchSkillStatsAsync(List<String> slugs) {
+            upstreamCalls.incrementAndGet();
+            if (failing) {
+                return CompletableFuture.failedFuture(new ApiException(502, "Skill Stats API unavailable"));
+            }
+            int score = popularity;
+            return gate.thenApply(ignored -> slugs.stream().map(slug -> {
+                SkillStatsDTO dto = new SkillStatsDTO();
+                dto.setSlug(slug);
+                dto.setPopularityScore(score);
+                dto.setAverageSalary(100000);
+                return dto;
+            }).toList());
+        }
+    }
+
+    private static long stat(Map<String, Object> stats, String key) {
+        return ((Number) stats.get(key)).longValue();
+    }
+
+    @Test
+    void skillStatsCache_servesHitsUntilTtlAndEvictsLeastRecentlyUsed() throws Exception {
+        ScriptedApiService upstream = new ScriptedApiService();
+        // no refresh-ahead window
+        SkillStatsCache cache = new SkillStatsCache(upstream, 2, 300, 0);
+
+        Assertions.assertEquals(80, cache.getAll(List.of("a")).get("a").getPopularityScore());
+        cache.getAll(List.of("a"));
+        Assertions.assertEquals(1, upstream.upstreamCalls.get());
+
+        // a was last read before b and c were loaded - loading c pushes it out
+        cache.getAll(List.of("b"));
+        cache.getAll(List.of("c"));
+        cache.getAll(List.of("c"));
+        Assertions.assertEquals(3, upstream.upstreamCalls.get());
+        cache.getAll(List.of("a"));
+        Assertions.assertEquals(4, upstream.upstreamCalls.get());
+        Map<String, Object> stats = cache.getStats();
+        Assertions.assertEquals(2, stat(stats, "size"));
+        Assertions.assertEquals(2, stat(stats, "evictions"));
+        Assertions.assertEquals(2, stat(stats, "hits"));
+        Assertions.assertEquals(4, stat(stats, "misses"));
+
+        // expired entries are loaded again
+        Thread.sleep(350);
+        cache.getAll(List.of("a"));
+        Assertions.assertEquals(5, upstream.upstreamCalls.get());
+    }
+
+    @Test
+    void skillStatsCache_refreshesAheadOfExpiryInTheBackground() throws Exception {
+        ScriptedApiService upstream = new ScriptedApiService();
+        // refresh-ahead once an entry is older than 100 ms
+        SkillStatsCache cache = new SkillStatsCache(upstream, 10, 5000, 4900);
+        cache.getAll(List.of("a"));
+
+        Thread.sleep(150);
+        upstream.popularity = 90;
+        // still the cached value, the reload runs in the background
+        Assertions.assertEquals(80, cache.getAll(List.of("a")).get("a").getPopularityScore());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stat(cache.getStats(), "refreshes") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, stat(cache.getStats(), "refreshes"));
+        Assertions.assertEquals(2, upstream.upstreamCalls.get());
+        Assertions.assertEquals(90, cache.getAll(List.of("a")).get("a").getPopularityScore());
+    }
+
+    @Test
+    void fetchSkillStatsCoalesced_sharesPendingLookups() {
+        ScriptedApiService upstream = new ScriptedApiService();
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        upstream.gate = gate;
+
+        CompletableFuture<Map<String, SkillStatsDTO>> first = upstream.fetchSkillStatsCoalesced(List.of("x", "y"));
+        // x is pending for the first caller - only z goes upstream
+        CompletableFuture<Map<String, SkillStatsDTO>> second = upstream.fetchSkillStatsCoalesced(List.of("x", "z", "z"));
+        Map<String, Object> stats = upstream.getUpstreamStats();
+        Assertions.assertEquals(4, stat(stats, "requestedSlugs"));
+        Assertions.assertEquals(1, stat(stats, "coalescedSlugs"));
+        Assertions.assertEquals(2, stat(stats, "upstreamCalls"));
+        Assertions.assertEquals(3, stat(stats, "inFlightSlugs"));
+        Assertions.assertFalse(second.isDone());
+
+        gate.complete(null);
+        Assertions.assertEquals(Set.of("x", "y"), first.join().keySet());
+        Assertions.assertEquals(Set.of("x", "z"), second.join().keySet());
+        Assertions.assertEquals(0, stat(upstream.getUpstreamStats(), "inFlightSlugs"));
+
+        // nothing pending any more - x is requested again
+        upstream.fetchSkillStatsCoalesced(List.of("x")).join();
+        Assertions.assertEquals(3, stat(upstream.getUpstreamStats(), "upstreamCalls"));
+    }
+
+    @Test
+    void circuitBreaker_opensHalfOpensAndCloses() throws Exception {
+        // window 4, opens at 50% failures or 100% slow calls after 2 calls, 200 ms open, 2 trial calls
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 2, 0.5, 1.0, 1000, 200, 2);
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        breaker.onError(1);
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        breaker.onError(1);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.tryAcquirePermission());
+
+        // half open: two trial calls, one failure opens again
+        Thread.sleep(250);
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        Assertions.assertFalse(breaker.tryAcquirePermission());
+        breaker.onSuccess(1);
+        breaker.onError(1);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // both trial calls succeed => closed
+        Thread.sleep(250);
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        Assertions.assertTrue(breaker.tryAcquirePermission());
+        breaker.onSuccess(1);
+        breaker.onSuccess(1);
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // slow but successful calls open it too
+        breaker.onSuccess(5000);
+        breaker.onSuccess(5000);
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertEquals(3, stat(breaker.getStats(), "timesOpened"));
+        Assertions.assertEquals(2, stat(breaker.getStats(), "rejectedCalls"));
+    }
+
+    private static Object breakerState(ApiService apiService) {
+        return ((Map<?, ?>) apiService.getUpstreamStats().get("circuitBreaker")).get("state");
+    }
+
+    @Test
+    void apiService_openBreakerRejectsWithoutCallingUpstream() throws Exception {
+        System.setProperty("API_BREAKER_WINDOW_SIZE", "4");
+        System.setProperty("API_BREAKER_MINIMUM_CALLS", "2");
+        System.setProperty("API_BREAKER_OPEN_SECONDS", "1");
+        System.setProperty("API_BREAKER_HALF_OPEN_CALLS", "1");
+        ScriptedApiService upstream;
+        try {
+            upstream = new ScriptedApiService();
+        } finally {
+            System.clearProperty("API_BREAKER_WINDOW_SIZE");
+            System.clearProperty("API_BREAKER_MINIMUM_CALLS");
+            System.clearProperty("API_BREAKER_OPEN_SECONDS");
+            System.clearProperty("API_BREAKER_HALF_OPEN_CALLS");
+        }
+        upstream.failing = true;
+        for (int i = 0; i < 2; i++) {
+            ApiException e = Assertions.assertThrows(ApiException.class, () -> upstream.fetchSkillStatsBatched(List.of("a")));
+            Assertions.assertEquals(502, e.getCode());
+        }
+        ApiException rejected = Assertions.assertThrows(ApiException.class, () -> upstream.fetchSkillStatsBatched(List.of("a")));
+        Assertions.assertEquals(503, rejected.getCode());
+        Assertions.assertEquals(2, upstream.upstreamCalls.get());
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breakerState(upstream));
+
+        // after the open time one trial call goes through and closes it
+        Thread.sleep(1100);
+        upstream.failing = false;
+        Assertions.assertEquals(Set.of("a"), upstream.fetchSkillStatsBatched(List.of("a")).keySet());
+        Assertions.assertEquals(3, upstream.upstreamCalls.get());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breakerState(upstream));
+    }
+
+    @Test
+    void apiService_fullBulkheadRejectsAtOnce() {
+        ScriptedApiService upstream = new ScriptedApiService();
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        upstream.gate = gate;
+        int maxCalls = (int) stat(upstream.getUpstreamStats(), "bulkheadMaxConcurrentCalls");
+
+        List<CompletableFuture<Map<String, SkillStatsDTO>>> held = new ArrayList<>();
+        for (int i = 0; i < maxCalls; i++) {
+            held.add(upstream.fetchSkillStatsCoalesced(List.of("held-" + i)));
+        }
+        CompletableFuture<Map<String, SkillStatsDTO>> extra = upstream.fetchSkillStatsCoalesced(List.of("extra"));
+        CompletionException e = Assertions.assertThrows(CompletionException.class, extra::join);
+        Assertions.assertEquals(503, ((ApiException) e.getCause()).getCode());
+        Map<String, Object> stats = upstream.getUpstreamStats();
+        Assertions.assertEquals(1, stat(stats, "bulkheadRejections"));
+        Assertions.assertEquals(0, stat(stats, "bulkheadAvailable"));
+        Assertions.assertEquals(maxCalls, upstream.upstreamCalls.get());
+
+        gate.complete(null);
+        held.forEach(future -> Assertions.assertEquals(1, future.join().size()));
+        Assertions.assertEquals(maxCalls, stat(upstream.getUpstreamStats(), "bulkheadAvailable"));
+    }
+
+    @Test
+    void skillStatsCache_servesExpiredEntriesAsStaleWhileUpstreamFails() throws Exception {
+        ScriptedApiService upstream = new ScriptedApiService();
+        SkillStatsCache cache = new SkillStatsCache(upstream, 10, 100, 0);
+        cache.getAll(List.of("a"));
+
+        upstream.failing = true;
+        Thread.sleep(150);
+        SkillStatsDTO stale = cache.getAll(List.of("a")).get("a");
+        Assertions.assertTrue(stale.isStale());
+        Assertions.assertEquals(80, stale.getPopularityScore());
+        Map<String, Object> stats = cache.getStats();
+        Assertions.assertEquals(1, stat(stats, "upstreamFailures"));
+        Assertions.assertEquals(1, stat(stats, "staleServed"));
+
+        // nothing cached to fall back on
+        Assertions.assertThrows(ExternalServiceException.class, () -> cache.getAll(List.of("unknown")));
+    }
 }
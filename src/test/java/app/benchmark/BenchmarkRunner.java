@@ -0,0 +1,35 @@
+package app.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+/**
+ * Lille måle-hjælper til benchmarks der køres manuelt med main():
+ * opvarmning, derefter tid og allokerede bytes pr. operation på den kørende tråd.
+ */
+final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    /** @param operation returnerer et tal der bruges, så JIT'en ikke kan fjerne arbejdet */
+    static void measure(String name, int warmupRounds, int measuredRounds, IntSupplier operation) {
+        long sink = 0;
+        for (int i = 0; i < warmupRounds; i++) {
+            sink += operation.getAsInt();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        for (int i = 0; i < measuredRounds; i++) {
+            sink += operation.getAsInt();
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        System.out.printf("%-28s %12.1f ns/op %10d bytes/op (checksum %d)%n",
+                name, (double) elapsed / measuredRounds, allocated / measuredRounds, sink);
+    }
+}
@@ -0,0 +1,157 @@
+package app.benchmark;
+
+import app.DAO.CandidateDAO;
+import app.DTO.SkillStatsDTO;
+import app.config.ApplicationConfig;
+import app.config.HibernateConfig;
+import app.services.ApiService;
+import io.javalin.Javalin;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Belastningstest af kandidat-endpoints med EXECUTION_MODE=platform og derefter virtual:
+ * samme server, samme database (Testcontainers), flere samtidige klienter end Jetty har tråde.
+ * Hver klient sender GET /candidate?limit=20 og GET /candidate/{id} på skift så hurtigt den kan.
+ * Rate limits slås fra og concurrency-grænsen hæves, så det er trådmodellen der måles.
+ *
+ * Køres manuelt (ikke en del af mvn test):
+ * mvn test-compile exec:java -Dexec.mainClass=app.benchmark.CandidateLoadBenchmark -Dexec.classpathScope=test -Dexec.args="400 20"
+ */
+public class CandidateLoadBenchmark {
+
+    private static final int WARMUP_SECONDS = 5;
+    private static final int CANDIDATE_IDS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.setProperty("RATE_LIMIT_ANYONE_PER_MINUTE", "0");
+        System.setProperty("RATE_LIMIT_USER_PER_MINUTE", "0");
+        System.setProperty("RATE_LIMIT_ADMIN_PER_MINUTE", "0");
+        System.setProperty("ADMISSION_INITIAL_LIMIT", "100000");
+        System.setProperty("ADMISSION_MAX_LIMIT", "100000");
+
+        HibernateConfig.setTest(true);
+        EntityManagerFactory emf = HibernateConfig.getEntityManagerFactoryForTest();
+        CandidateReadBenchmark.seed(emf, new CandidateDAO(emf));
+        List<Integer> ids;
+        try (EntityManager em = emf.createEntityManager()) {
+            ids = em.createQuery("SELECT c.id FROM Candidate c ORDER BY c.id", Integer.class)
+                    .setMaxResults(CANDIDATE_IDS)
+                    .getResultList();
+        }
+
+        int port = 7790;
+        for (ApplicationConfig.ExecutionMode mode : ApplicationConfig.ExecutionMode.values()) {
+            ApplicationConfig.setExecutionMode(mode);
+            Javalin app = ApplicationConfig.startServer(port, stubApiService());
+            String baseUrl = "http://localhost:" + port + "/api/v1";
+            run(baseUrl, ids, clients, WARMUP_SECONDS);
+            Result result = run(baseUrl, ids, clients, seconds);
+            app.stop();
+            System.out.println(mode.name().toLowerCase() + ": " + result);
+            port++;
+        }
+        emf.close();
+        System.exit(0);
+    }
+
+    // Samme stub som i CandidateApiTest - ingen kald ud af huset
+    private static ApiService stubApiService() {
+        return new ApiService() {
+            @Override
+            public CompletableFuture<List<SkillStatsDTO>> fetchSkillStatsAsync(List<String> slugs) {
+                return CompletableFuture.completedFuture(slugs.stream().map(slug -> {
+                    SkillStatsDTO dto = new SkillStatsDTO();
+                    dto.setSlug(slug);
+                    dto.setPopularityScore(80);
+                    dto.setAverageSalary(100000);
+                    return dto;
+                }).toList());
+            }
+        };
+    }
+
+    private record Result(long requests, double perSecond, double p50Ms, double p99Ms, Map<Integer, Long> statuses) {
+        @Override
+        public String toString() {
+            return String.format("%d requests, %.0f req/s, p50 %.1f ms, p99 %.1f ms, status %s",
+                    requests, perSecond, p50Ms, p99Ms, statuses);
+        }
+    }
+
+    private static Result run(String baseUrl, List<Integer> ids, int clients, int seconds) throws InterruptedException {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        // statuskode -> antal, 0 = fejl uden svar
+        AtomicLongArray statuses = new AtomicLongArray(600);
+        long[][] latencies = new long[clients][];
+        Thread[] threads = new Thread[clients];
+
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                long[] own = new long[1024];
+                int count = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    String path = count % 2 == 0
+                            ? "/candidate?limit=20"
+                            : "/candidate/" + ids.get(random.nextInt(ids.size()));
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                            .timeout(Duration.ofSeconds(30))
+                            .GET()
+                            .build();
+                    long started = System.nanoTime();
+                    int status;
+                    try {
+                        status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = 0;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (count == own.length) {
+                        own = Arrays.copyOf(own, count * 2);
+                    }
+                    own[count++] = System.nanoTime() - started;
+                    statuses.incrementAndGet(status);
+                }
+                latencies[client] = Arrays.copyOf(own, count);
+            }, "load-client-" + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = Arrays.stream(latencies).filter(Objects::nonNull).flatMapToLong(Arrays::stream).sorted().toArray();
+        Map<Integer, Long> byStatus = new TreeMap<>();
+        for (int status = 0; status < statuses.length(); status++) {
+            if (statuses.get(status) > 0) byStatus.put(status, statuses.get(status));
+        }
+        return new Result(all.length, all.length / (double) seconds,
+                percentile(all, 0.50) / 1_000_000.0, percentile(all, 0.99) / 1_000_000.0, byStatus);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+}
@@ -0,0 +1,82 @@
+package app.benchmark;
+
+import app.DAO.CandidateDAO;
+import app.DAO.SkillDAO;
+import app.DTO.CandidateDTO;
+import app.config.HibernateConfig;
+import app.entities.Candidate;
+import app.entities.Skill;
+import app.enums.Category;
+import app.mapper.DTOMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+import java.util.*;
+
+/**
+ * Sammenligner læsevejen for GET /candidate før og efter projektionerne:
+ * managed entities + DTOMapper mod tuple-projektion i en read-only session.
+ * Kører mod en Testcontainers database og måler tid og allokering pr. side (én side = én operation).
+ *
+ * Køres manuelt (ikke en del af mvn test):
+ * mvn test-compile exec:java -Dexec.mainClass=app.benchmark.CandidateReadBenchmark -Dexec.classpathScope=test
+ */
+public class CandidateReadBenchmark {
+
+    private static final int CANDIDATES = 2_000;
+    private static final int PAGE_SIZE = 100;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 1_000;
+
+    public static void main(String[] args) {
+        EntityManagerFactory emf = HibernateConfig.getEntityManagerFactoryForTest();
+        CandidateDAO candidateDAO = new CandidateDAO(emf);
+        seed(emf, candidateDAO);
+
+        BenchmarkRunner.measure("entities + DTOMapper", WARMUP_ROUNDS, MEASURED_ROUNDS,
+                () -> entityPage(emf, PAGE_SIZE).size());
+        BenchmarkRunner.measure("read-only projection", WARMUP_ROUNDS, MEASURED_ROUNDS,
+                () -> candidateDAO.getPage(0, PAGE_SIZE).size());
+        emf.close();
+    }
+
+    // Den tidligere læsevej: join fetch af managed entities, derefter kopieret til DTOs
+    private static List<CandidateDTO> entityPage(EntityManagerFactory emf, int limit) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Integer> ids = em.createQuery("SELECT c.id FROM Candidate c ORDER BY c.id", Integer.class)
+                    .setMaxResults(limit)
+                    .getResultList();
+            return em.createQuery("SELECT DISTINCT c FROM Candidate c LEFT JOIN FETCH c.skills WHERE c.id IN :ids ORDER BY c.id", Candidate.class)
+                    .setParameter("ids", ids)
+                    .getResultList()
+                    .stream()
+                    .map(DTOMapper::toCandidateDTO)
+                    .toList();
+        } finally {
+            em.close();
+        }
+    }
+
+    static void seed(EntityManagerFactory emf, CandidateDAO candidateDAO) {
+        SkillDAO skillDAO = new SkillDAO(emf);
+        List<Skill> skills = new ArrayList<>();
+        Category[] categories = Category.values();
+        for (int i = 0; i < 20; i++) {
+            skills.add(skillDAO.create(new Skill("Skill " + i, "Benchmark skill " + i, categories[i % categories.length])));
+        }
+
+        Random random = new Random(42);
+        List<Candidate> candidates = new ArrayList<>(CANDIDATES);
+        for (int i = 0; i < CANDIDATES; i++) {
+            Candidate candidate = new Candidate("Candidate " + i, String.valueOf(10_000_000 + i), "Computer Science");
+            Set<Skill> own = new HashSet<>();
+            for (int s = 0; s < 4; s++) {
+                own.add(skills.get(random.nextInt(skills.size())));
+            }
+            candidate.setSkills(own);
+            candidates.add(candidate);
+        }
+        candidateDAO.insertBatch(candidates);
+    }
+}
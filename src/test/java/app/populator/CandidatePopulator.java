@@ -8,6 +8,7 @@ import app.enums.Category;
 import jakarta.persistence.EntityManagerFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,11 +23,14 @@ public class CandidatePopulator {
         var candidateDAO = new CandidateDAO(emf);
         var skillDAO = new SkillDAO(emf);
 
-        // Opret Skills
-        Skill javaSkill = new Skill("Java", "Backend programming", Category.PROG_LANG);
-        Skill springSkill = new Skill("Spring Boot", "Java framework", Category.FRAMEWORK);
-        javaSkill = skillDAO.create(javaSkill);
-        springSkill = skillDAO.create(springSkill);
+        // Opret Skills - slug er unik, så skills genbruges hvis de allerede er seedet
+        Map<String, Skill> existing = skillDAO.getBySlugs(List.of("java", "spring-boot"));
+        Skill javaSkill = existing.containsKey("java")
+                ? existing.get("java")
+                : skillDAO.create(new Skill("Java", "Backend programming", Category.PROG_LANG));
+        Skill springSkill = existing.containsKey("spring-boot")
+                ? existing.get("spring-boot")
+                : skillDAO.create(new Skill("Spring Boot", "Java framework", Category.FRAMEWORK));
 
         // Opret Kandidater
         Candidate alice = new Candidate("Alice", "11111111", "Computer Science");